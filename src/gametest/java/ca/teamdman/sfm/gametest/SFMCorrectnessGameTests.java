@@ -1,6 +1,7 @@
 package ca.teamdman.sfm.gametest;
 
 import ca.teamdman.sfm.SFM;
+import ca.teamdman.sfm.common.SFMConfig;
 import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.blockentity.PrintingPressBlockEntity;
 import ca.teamdman.sfm.common.cablenetwork.CableNetwork;
@@ -11,13 +12,21 @@ import ca.teamdman.sfm.common.localization.LocalizationKeys;
 import ca.teamdman.sfm.common.program.GatherWarningsProgramBehaviour;
 import ca.teamdman.sfm.common.program.LabelPositionHolder;
 import ca.teamdman.sfm.common.program.ProgramContext;
+import ca.teamdman.sfm.common.program.ProgramTickBudget;
 import ca.teamdman.sfm.common.registry.SFMBlocks;
 import ca.teamdman.sfm.common.registry.SFMItems;
+import ca.teamdman.sfml.ast.DirectionQualifier;
+import ca.teamdman.sfml.ast.Label;
+import ca.teamdman.sfml.ast.LabelAccess;
+import ca.teamdman.sfml.ast.NumberRangeSet;
+import ca.teamdman.sfml.ast.RoundRobin;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.gametest.framework.AfterBatch;
 import net.minecraft.gametest.framework.GameTest;
 import net.minecraft.gametest.framework.GameTestHelper;
 import net.minecraft.world.Container;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.entity.player.Player;
@@ -38,6 +47,9 @@ import org.apache.logging.log4j.Level;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 // https://github.dev/CompactMods/CompactMachines
@@ -1397,6 +1409,31 @@ public class SFMCorrectnessGameTests extends SFMGameTestBase {
         helper.succeed();
     }
 
+    @GameTest(template = "1x2x1")
+    public static void disk_copies_share_labels_until_changed(GameTestHelper helper) {
+        var disk = new ItemStack(SFMItems.DISK_ITEM.get());
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(BlockPos.ZERO))
+                .save(disk);
+        var copy = disk.copy();
+        assertTrue(
+                LabelPositionHolder.from(copy) == LabelPositionHolder.from(disk),
+                "copies of a disk should share the cached labels"
+        );
+
+        LabelPositionHolder.from(disk)
+                .toOwned()
+                .add("b", helper.absolutePos(BlockPos.ZERO))
+                .save(disk);
+        assertTrue(LabelPositionHolder.from(disk).getPositions("b").size() == 1, "the change was not saved");
+        assertTrue(LabelPositionHolder.from(copy).getPositions("b").isEmpty(), "the change leaked into the copy");
+        assertTrue(
+                LabelPositionHolder.from(copy).getVersion() != LabelPositionHolder.from(disk).getVersion(),
+                "different labels should have different versions"
+        );
+        helper.succeed();
+    }
+
     @GameTest(template = "1x2x1")
     public static void program_crlf_line_endings_conversion(GameTestHelper helper) {
         var managerPos = new BlockPos(0, 2, 0);
@@ -2001,6 +2038,65 @@ public class SFMCorrectnessGameTests extends SFMGameTestBase {
         });
     }
 
+    @GameTest(template = "3x2x1")
+    public static void forget_reuses_label_positions(GameTestHelper helper) {
+        helper.setBlock(new BlockPos(1, 2, 0), SFMBlocks.MANAGER_BLOCK.get());
+        BlockPos rightPos = new BlockPos(0, 2, 0);
+        helper.setBlock(rightPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        BlockPos leftPos = new BlockPos(2, 2, 0);
+        helper.setBlock(leftPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+
+        var rightChest = getItemHandler(helper, rightPos);
+        var leftChest = getItemHandler(helper, leftPos);
+
+        leftChest.insertItem(0, new ItemStack(Blocks.DIRT, 64), false);
+
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(new BlockPos(1, 2, 0));
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        manager.setProgram("""
+                                       EVERY 20 TICKS DO
+                                           INPUT 1 FROM a,b
+                                           FORGET b
+                                           OUTPUT to z
+                                       END
+                                   """.stripTrailing().stripIndent());
+
+        // set the labels
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(leftPos))
+                .add("b", helper.absolutePos(leftPos))
+                .add("z", helper.absolutePos(rightPos))
+                .save(manager.getDisk().get());
+
+        // FORGET makes a new label access each time it runs, the positions must be looked up by the labels
+        var forgotten = new LabelAccess(
+                List.of(new Label("a")),
+                DirectionQualifier.NULL_DIRECTION,
+                NumberRangeSet.MAX_RANGE,
+                RoundRobin.disabled()
+        );
+        var again = new LabelAccess(
+                List.of(new Label("a")),
+                DirectionQualifier.EVERY_DIRECTION,
+                NumberRangeSet.MAX_RANGE,
+                RoundRobin.disabled()
+        );
+        helper.runAfterDelay(45, () -> {
+            ProgramContext context = manager.getProgramContext(manager.getProgram().get());
+            assertTrue(
+                    context.getLabelAccessPositions(forgotten) == context.getLabelAccessPositions(again),
+                    "equal labels should share their positions"
+            );
+            assertTrue(context.getLabelAccessPositions(forgotten).size() == 1, "a should have one position");
+            assertTrue(rightChest.getStackInSlot(0).getCount() >= 2, "should have moved on every run");
+            assertTrue(
+                    leftChest.getStackInSlot(0).getCount() + rightChest.getStackInSlot(0).getCount() == 64,
+                    "dirt went missing"
+            );
+            helper.succeed();
+        });
+    }
+
     @GameTest(template = "3x2x1")
     public static void reorder_1(GameTestHelper helper) {
         helper.setBlock(new BlockPos(1, 2, 0), SFMBlocks.MANAGER_BLOCK.get());
@@ -3044,4 +3140,311 @@ public class SFMCorrectnessGameTests extends SFMGameTestBase {
             assertTrue(count(rightChest, Items.COBBLESTONE) == 64 * 2, "cobblestone should arrive");
         });
     }
+
+    @GameTest(template = "3x4x3")
+    public static void output_fills_labels_in_order(GameTestHelper helper) {
+        BlockPos managerPos = new BlockPos(1, 2, 1);
+        BlockPos sourcePos = new BlockPos(1, 3, 1);
+        BlockPos firstPos = new BlockPos(2, 2, 1);
+        BlockPos secondPos = new BlockPos(0, 2, 1);
+
+        // set up inventories
+        helper.setBlock(sourcePos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(firstPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(secondPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+
+        var sourceInv = getItemHandler(helper, sourcePos);
+        var firstInv = getItemHandler(helper, firstPos);
+        var secondInv = getItemHandler(helper, secondPos);
+
+        sourceInv.insertItem(0, new ItemStack(Blocks.DIRT, 10), false);
+        // a partial stack in the second inventory must not be filled before the empty slots of the first
+        secondInv.insertItem(0, new ItemStack(Blocks.DIRT, 5), false);
+
+        // set up manager
+        helper.setBlock(managerPos, SFMBlocks.MANAGER_BLOCK.get());
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(managerPos);
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        manager.setProgram("""
+                                       EVERY 20 TICKS DO
+                                           INPUT FROM source
+                                           OUTPUT TO first, second
+                                       END
+                                   """.stripTrailing().stripIndent());
+        // set the labels
+        LabelPositionHolder.empty()
+                .add("source", helper.absolutePos(sourcePos))
+                .add("first", helper.absolutePos(firstPos))
+                .add("second", helper.absolutePos(secondPos))
+                .save(manager.getDisk().get());
+
+        succeedIfManagerDidThingWithoutLagging(helper, manager, () -> {
+            assertTrue(count(sourceInv, null) == 0, "dirt did not leave");
+            assertTrue(firstInv.getStackInSlot(0).getCount() == 10, "dirt did not arrive in the first inventory");
+            assertTrue(secondInv.getStackInSlot(0).getCount() == 5, "the second inventory should be untouched");
+        });
+    }
+
+    @GameTest(template = "3x2x1")
+    public static void output_fills_slots_in_order(GameTestHelper helper) {
+        helper.setBlock(new BlockPos(1, 2, 0), SFMBlocks.MANAGER_BLOCK.get());
+        BlockPos rightPos = new BlockPos(0, 2, 0);
+        helper.setBlock(rightPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        BlockPos leftPos = new BlockPos(2, 2, 0);
+        helper.setBlock(leftPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+
+        var rightChest = getItemHandler(helper, rightPos);
+        var leftChest = getItemHandler(helper, leftPos);
+
+        leftChest.insertItem(0, new ItemStack(Blocks.DIRT, 64), false);
+        leftChest.insertItem(1, new ItemStack(Blocks.DIRT, 64), false);
+        // an empty slot comes before the partial stack, which comes before more empty slots
+        rightChest.insertItem(1, new ItemStack(Blocks.DIRT, 60), false);
+
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(new BlockPos(1, 2, 0));
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        manager.setProgram("""
+                                       EVERY 20 TICKS DO
+                                           INPUT FROM a
+                                           OUTPUT TO b
+                                       END
+                                   """.stripTrailing().stripIndent());
+
+        // set the labels
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(leftPos))
+                .add("b", helper.absolutePos(rightPos))
+                .save(manager.getDisk().get());
+
+        succeedIfManagerDidThingWithoutLagging(helper, manager, () -> {
+            assertTrue(count(leftChest, null) == 0, "dirt did not leave");
+            assertTrue(rightChest.getStackInSlot(0).getCount() == 64, "slot 0 should be filled first");
+            assertTrue(rightChest.getStackInSlot(1).getCount() == 64, "slot 1 should be topped up second");
+            assertTrue(rightChest.getStackInSlot(2).getCount() == 60, "slot 2 should get the rest");
+            assertTrue(rightChest.getStackInSlot(3).isEmpty(), "slot 3 should be empty");
+        });
+    }
+
+    /**
+     * Changes the server-wide tick budget, so it runs in its own batch.
+     */
+    @GameTest(template = "3x2x1", batch = "tick_budget")
+    public static void tick_budget_runs_every_trigger(GameTestHelper helper) {
+        helper.setBlock(new BlockPos(1, 2, 0), SFMBlocks.MANAGER_BLOCK.get());
+        BlockPos rightPos = new BlockPos(0, 2, 0);
+        helper.setBlock(rightPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        BlockPos leftPos = new BlockPos(2, 2, 0);
+        helper.setBlock(leftPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+
+        var rightChest = getItemHandler(helper, rightPos);
+        var leftChest = getItemHandler(helper, leftPos);
+
+        leftChest.insertItem(0, new ItemStack(Blocks.DIRT, 64), false);
+        leftChest.insertItem(1, new ItemStack(Blocks.STONE, 64), false);
+        leftChest.insertItem(2, new ItemStack(Blocks.COBBLESTONE, 64), false);
+
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(new BlockPos(1, 2, 0));
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        manager.setProgram("""
+                                       EVERY 20 TICKS DO
+                                           INPUT dirt FROM a
+                                           OUTPUT TO b
+                                       END
+                                       EVERY 20 TICKS DO
+                                           INPUT stone FROM a
+                                           OUTPUT TO b
+                                       END
+                                       EVERY 20 TICKS DO
+                                           INPUT cobblestone FROM a
+                                           OUTPUT TO b
+                                       END
+                                   """.stripTrailing().stripIndent());
+
+        // set the labels
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(leftPos))
+                .add("b", helper.absolutePos(rightPos))
+                .save(manager.getDisk().get());
+        assertManagerRunning(manager);
+
+        // a microsecond is spent by the first trigger, the others have to wait for later ticks
+        ProgramTickBudget.setBudgetOverride(0.001);
+
+        // deferred triggers keep their order
+        for (int delay = 1; delay < 150; delay++) {
+            helper.runAfterDelay(delay, () -> assertTrue(
+                    count(rightChest, Items.COBBLESTONE) == 0 || count(rightChest, Items.STONE) == 64,
+                    "the third trigger ran before the second"
+            ));
+        }
+
+        helper.succeedWhen(() -> {
+            assertTrue(count(rightChest, Items.DIRT) == 64, "dirt did not arrive");
+            assertTrue(count(rightChest, Items.STONE) == 64, "stone did not arrive");
+            assertTrue(count(rightChest, Items.COBBLESTONE) == 64, "cobblestone did not arrive");
+            assertTrue(count(leftChest, null) == 0, "items did not leave");
+            assertTrue(!manager.hasDeferredTriggers(), "triggers are still waiting");
+            // the count shown by /sfm show_manager_stats
+            assertTrue(manager.getTriggerDeferralCount() >= 2, "expected at least 2 deferrals, got " + manager.getTriggerDeferralCount());
+        });
+    }
+
+    /**
+     * Runs once the tick budget batch is done, whether its tests passed or failed.
+     */
+    @AfterBatch(batch = "tick_budget")
+    public static void restore_tick_budget(ServerLevel level) {
+        ProgramTickBudget.setBudgetOverride(null);
+    }
+
+    /**
+     * Shrinks the trigger time slice so that every statement runs on its own tick.
+     * This changes the server-wide config, so these tests run in their own batch.
+     */
+    private static void sliceEveryStatement(GameTestHelper helper) {
+        double oldSlice = SFMConfig.COMMON.triggerTimeSliceMilliseconds.get();
+        SFMConfig.COMMON.triggerTimeSliceMilliseconds.set(0.000001);
+        helper.runAfterDelay(150, () -> SFMConfig.COMMON.triggerTimeSliceMilliseconds.set(oldSlice));
+    }
+
+    private static void restoreSlice() {
+        SFMConfig.COMMON.triggerTimeSliceMilliseconds.set(SFMConfig.COMMON.triggerTimeSliceMilliseconds.getDefault());
+    }
+
+    @GameTest(template = "3x4x3", batch = "time_slice")
+    public static void suspended_trigger_moves_same_totals(GameTestHelper helper) {
+        BlockPos managerPos = new BlockPos(1, 2, 1);
+        BlockPos sourcePos = new BlockPos(1, 3, 1);
+        BlockPos bPos = new BlockPos(2, 2, 1);
+        BlockPos cPos = new BlockPos(0, 2, 1);
+
+        // set up inventories
+        helper.setBlock(sourcePos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(bPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(cPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        var sourceInv = getItemHandler(helper, sourcePos);
+        var bInv = getItemHandler(helper, bPos);
+        var cInv = getItemHandler(helper, cPos);
+        sourceInv.insertItem(0, new ItemStack(Blocks.DIRT, 64), false);
+        sourceInv.insertItem(1, new ItemStack(Blocks.STONE, 64), false);
+
+        // set up manager
+        helper.setBlock(managerPos, SFMBlocks.MANAGER_BLOCK.get());
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(managerPos);
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        // the input slots and output trackers have to survive being suspended between the outputs
+        manager.setProgram("""
+                                       EVERY 20 TICKS DO
+                                           INPUT FROM source
+                                           OUTPUT RETAIN 10 dirt TO b
+                                           OUTPUT RETAIN 30 dirt TO c
+                                           OUTPUT stone TO c
+                                       END
+                                   """.stripTrailing().stripIndent());
+        LabelPositionHolder.empty()
+                .add("source", helper.absolutePos(sourcePos))
+                .add("b", helper.absolutePos(bPos))
+                .add("c", helper.absolutePos(cPos))
+                .save(manager.getDisk().get());
+        assertManagerRunning(manager);
+        sliceEveryStatement(helper);
+
+        // make sure the trigger really was suspended
+        var sawSuspended = new AtomicBoolean(false);
+        for (int delay = 1; delay < 150; delay++) {
+            helper.runAfterDelay(delay, () -> {
+                if (manager.getProgramContext(manager.getProgram().get()).getSuspendedTrigger() != null) {
+                    sawSuspended.set(true);
+                }
+            });
+        }
+
+        helper.succeedWhen(() -> {
+            // the same totals as running the trigger in one go
+            assertTrue(sawSuspended.get(), "the trigger was never suspended");
+            assertTrue(count(bInv, Items.DIRT) == 10, "b should have 10 dirt, has " + count(bInv, Items.DIRT));
+            assertTrue(count(cInv, Items.DIRT) == 30, "c should have 30 dirt, has " + count(cInv, Items.DIRT));
+            assertTrue(count(cInv, Items.STONE) == 64, "c should have 64 stone, has " + count(cInv, Items.STONE));
+            assertTrue(count(sourceInv, Items.DIRT) == 24, "source should have 24 dirt left");
+            assertTrue(count(sourceInv, Items.STONE) == 0, "source should have no stone left");
+            restoreSlice();
+        });
+    }
+
+    /**
+     * Suspend a trigger while it holds slots, make a change that throws away the context, and check the slots come back.
+     */
+    private static void assertSuspendedSlotsReleased(
+            GameTestHelper helper,
+            Consumer<ManagerBlockEntity> change
+    ) {
+        helper.setBlock(new BlockPos(1, 2, 0), SFMBlocks.MANAGER_BLOCK.get());
+        BlockPos rightPos = new BlockPos(0, 2, 0);
+        helper.setBlock(rightPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        BlockPos leftPos = new BlockPos(2, 2, 0);
+        helper.setBlock(leftPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        var leftChest = getItemHandler(helper, leftPos);
+        for (int i = 0; i < leftChest.getSlots(); i++) {
+            leftChest.insertItem(i, new ItemStack(Blocks.DIRT, 64), false);
+        }
+
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(new BlockPos(1, 2, 0));
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        manager.setProgram("""
+                                       EVERY 20 TICKS DO
+                                           INPUT FROM a
+                                           OUTPUT 1 dirt TO b
+                                           OUTPUT 1 dirt TO b
+                                           OUTPUT 1 dirt TO b
+                                           OUTPUT 1 dirt TO b
+                                       END
+                                   """.stripTrailing().stripIndent());
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(leftPos))
+                .add("b", helper.absolutePos(rightPos))
+                .save(manager.getDisk().get());
+        assertManagerRunning(manager);
+        sliceEveryStatement(helper);
+
+        var suspendedContext = new AtomicReference<ProgramContext>();
+        for (int delay = 1; delay < 150; delay++) {
+            helper.runAfterDelay(delay, () -> {
+                if (suspendedContext.get() != null || manager.getProgram().isEmpty()) return;
+                ProgramContext context = manager.getProgramContext(manager.getProgram().get());
+                if (context.getSuspendedTrigger() == null) return;
+                assertTrue(context.getInputSlotPool().leased() > 0, "a suspended trigger should hold its input slots");
+                suspendedContext.set(context);
+                change.accept(manager);
+            });
+        }
+
+        helper.succeedWhen(() -> {
+            ProgramContext context = suspendedContext.get();
+            assertTrue(context != null, "the trigger was never suspended");
+            assertTrue(
+                    context.getInputSlotPool().leased() == 0,
+                    "input slots leaked: " + context.getInputSlotPool().leased()
+            );
+            assertTrue(
+                    context.getOutputSlotPool().leased() == 0,
+                    "output slots leaked: " + context.getOutputSlotPool().leased()
+            );
+            restoreSlice();
+        });
+    }
+
+    @GameTest(template = "3x2x1", batch = "time_slice")
+    public static void suspended_trigger_released_on_program_swap(GameTestHelper helper) {
+        assertSuspendedSlotsReleased(helper, manager -> manager.setProgram("""
+                                                                                   EVERY 20 TICKS DO
+                                                                                       INPUT FROM b
+                                                                                       OUTPUT TO a
+                                                                                   END
+                                                                               """.stripTrailing().stripIndent()));
+    }
+
+    @GameTest(template = "3x2x1", batch = "time_slice")
+    public static void suspended_trigger_released_on_disk_removal(GameTestHelper helper) {
+        assertSuspendedSlotsReleased(helper, manager -> manager.setItem(0, ItemStack.EMPTY));
+    }
 }
@@ -5,6 +5,7 @@ import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.item.DiskItem;
 import ca.teamdman.sfm.common.localization.LocalizationKeys;
 import ca.teamdman.sfm.common.net.ServerboundOutputInspectionRequestPacket;
+import ca.teamdman.sfm.common.program.DefaultProgramBehaviour;
 import ca.teamdman.sfm.common.program.GatherWarningsProgramBehaviour;
 import ca.teamdman.sfm.common.program.LabelPositionHolder;
 import ca.teamdman.sfm.common.program.ProgramContext;
@@ -12,6 +13,7 @@ import ca.teamdman.sfm.common.registry.SFMBlocks;
 import ca.teamdman.sfm.common.registry.SFMItems;
 import ca.teamdman.sfml.ast.OutputStatement;
 import ca.teamdman.sfml.ast.Program;
+import ca.teamdman.sfml.ast.Trigger;
 import net.minecraft.core.BlockPos;
 import net.minecraft.gametest.framework.GameTest;
 import net.minecraft.gametest.framework.GameTestHelper;
@@ -853,4 +855,131 @@ public class SFMIfStatementGameTests extends SFMGameTestBase {
         });
     }
 
+    @GameTest(template = "3x4x3")
+    public static void conditions_see_earlier_moves(GameTestHelper helper) {
+        var managerPos = new BlockPos(1, 2, 1);
+        var aPos = new BlockPos(1, 3, 1);
+        var bPos = new BlockPos(2, 2, 1);
+        var cPos = new BlockPos(0, 2, 1);
+        helper.setBlock(aPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(bPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(cPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(managerPos, SFMBlocks.MANAGER_BLOCK.get());
+        var a = (Container) helper.getBlockEntity(aPos);
+        var b = (Container) helper.getBlockEntity(bPos);
+        var c = (Container) helper.getBlockEntity(cPos);
+        var manager = (ManagerBlockEntity) helper.getBlockEntity(managerPos);
+        a.setItem(0, new ItemStack(Items.DIRT, 64));
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        // both inventories are read before the first move, the second condition must see the moved dirt
+        manager.setProgram("""
+                                   NAME "conditions see earlier moves"
+                                   EVERY 20 TICKS DO
+                                       IF a HAS = 64 dirt AND b HAS = 0 dirt THEN
+                                           INPUT FROM a
+                                           OUTPUT TO b
+                                       END
+                                       IF a HAS = 0 dirt AND b HAS = 64 dirt THEN
+                                           INPUT FROM b
+                                           OUTPUT TO c
+                                       END
+                                   END
+                                   """.stripTrailing().stripIndent());
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(aPos))
+                .add("b", helper.absolutePos(bPos))
+                .add("c", helper.absolutePos(cPos))
+                .save(manager.getDisk().get());
+
+        succeedIfManagerDidThingWithoutLagging(helper, manager, () -> {
+            assertTrue(count(a, Items.DIRT) == 0, "dirt did not leave a");
+            assertTrue(count(b, Items.DIRT) == 0, "dirt did not leave b");
+            assertTrue(count(c, Items.DIRT) == 64, "dirt did not arrive in c");
+        });
+    }
+
+    @GameTest(template = "3x4x3")
+    public static void lowered_trigger_matches_ast(GameTestHelper helper) {
+        var managerPos = new BlockPos(1, 2, 1);
+        var aPos = new BlockPos(1, 3, 1);
+        var bPos = new BlockPos(2, 2, 1);
+        var cPos = new BlockPos(0, 2, 1);
+        helper.setBlock(aPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(bPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(cPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        helper.setBlock(managerPos, SFMBlocks.MANAGER_BLOCK.get());
+        var a = (Container) helper.getBlockEntity(aPos);
+        var b = (Container) helper.getBlockEntity(bPos);
+        var c = (Container) helper.getBlockEntity(cPos);
+        var manager = (ManagerBlockEntity) helper.getBlockEntity(managerPos);
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+        // the branches taken change as the dirt runs out, the constant ifs are folded by the optimizer
+        manager.setProgram("""
+                                   NAME "lowered trigger matches ast"
+                                   EVERY 20 TICKS DO
+                                       IF a HAS gt 30 dirt AND NOT b HAS gt 0 stone THEN
+                                           INPUT 20 dirt FROM a
+                                           OUTPUT RETAIN 5 dirt TO b
+                                           OUTPUT TO c
+                                       ELSE IF (a HAS gt 0 stone OR b HAS gt 100 stone) THEN
+                                           INPUT stone FROM a
+                                           OUTPUT TO b
+                                       ELSE
+                                           INPUT FROM c
+                                           OUTPUT TO a
+                                       END
+                                       IF TRUE THEN
+                                           INPUT 1 cobblestone FROM a
+                                           OUTPUT TO c
+                                       END
+                                       IF FALSE OR NOT TRUE THEN
+                                           INPUT FROM b
+                                           OUTPUT TO a
+                                       END
+                                   END
+                                   """.stripTrailing().stripIndent());
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(aPos))
+                .add("b", helper.absolutePos(bPos))
+                .add("c", helper.absolutePos(cPos))
+                .save(manager.getDisk().get());
+        Program program = manager.getProgram().get();
+        Trigger trigger = program.triggers().get(0);
+        ProgramContext context = new ProgramContext(program, manager, new DefaultProgramBehaviour());
+
+        // run the same rounds through the AST and through the lowered closures, starting from the same inventories
+        List<List<Integer>> viaAst = new ArrayList<>();
+        List<List<Integer>> viaLowered = new ArrayList<>();
+        for (boolean lowered : new boolean[]{false, true}) {
+            a.clearContent();
+            b.clearContent();
+            c.clearContent();
+            a.setItem(0, new ItemStack(Items.DIRT, 64));
+            a.setItem(1, new ItemStack(Items.STONE, 32));
+            a.setItem(2, new ItemStack(Items.COBBLESTONE, 3));
+            for (int round = 0; round < 6; round++) {
+                context.reset();
+                if (lowered) {
+                    program.getLoweredTrigger(trigger).tick(context);
+                } else {
+                    trigger.tick(context);
+                }
+                context.free();
+                List<Integer> counts = new ArrayList<>();
+                for (Container container : List.of(a, b, c)) {
+                    for (var item : List.of(Items.DIRT, Items.STONE, Items.COBBLESTONE)) {
+                        counts.add(count(container, item));
+                    }
+                }
+                (lowered ? viaLowered : viaAst).add(counts);
+            }
+        }
+        assertTrue(program.loweredTriggers().containsKey(trigger), "the trigger should have been lowered");
+        assertTrue(
+                !viaAst.get(0).equals(viaAst.get(viaAst.size() - 1)),
+                "the program should have moved something"
+        );
+        assertTrue(viaAst.equals(viaLowered), "lowered " + viaLowered + " but the AST gave " + viaAst);
+        helper.succeed();
+    }
 }
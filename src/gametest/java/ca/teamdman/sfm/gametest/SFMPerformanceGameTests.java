@@ -3,9 +3,16 @@ package ca.teamdman.sfm.gametest;
 import ca.teamdman.sfm.SFM;
 import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.item.DiskItem;
+import ca.teamdman.sfm.common.program.DefaultProgramBehaviour;
 import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import ca.teamdman.sfm.common.program.ProgramContext;
 import ca.teamdman.sfm.common.registry.SFMBlocks;
 import ca.teamdman.sfm.common.registry.SFMItems;
+import ca.teamdman.sfm.common.registry.SFMResourceTypes;
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import ca.teamdman.sfml.ast.Program;
+import ca.teamdman.sfml.ast.Trigger;
+import com.sun.management.ThreadMXBean;
 import net.minecraft.core.BlockPos;
 import net.minecraft.gametest.framework.GameTest;
 import net.minecraft.gametest.framework.GameTestHelper;
@@ -16,10 +23,15 @@ import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.entity.BarrelBlockEntity;
 import net.minecraftforge.gametest.GameTestHolder;
 import net.minecraftforge.gametest.PrefixGameTestTemplate;
+import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.items.ItemStackHandler;
+import org.jetbrains.annotations.NotNull;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 @SuppressWarnings({"DataFlowIssue", "OptionalGetWithoutIsPresent", "DuplicatedCode"})
 @GameTestHolder(SFM.MOD_ID)
@@ -551,4 +563,160 @@ public class SFMPerformanceGameTests extends SFMGameTestBase {
             }
         });
     }
+
+    @GameTest(template = "3x2x1", batch = "laggy")
+    public static void idle_program_does_not_allocate(GameTestHelper helper) {
+        helper.setBlock(new BlockPos(1, 2, 0), SFMBlocks.MANAGER_BLOCK.get());
+        BlockPos leftPos = new BlockPos(2, 2, 0);
+        helper.setBlock(leftPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        BlockPos rightPos = new BlockPos(0, 2, 0);
+        helper.setBlock(rightPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(new BlockPos(1, 2, 0));
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+
+        // set the labels
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(leftPos))
+                .add("b", helper.absolutePos(rightPos))
+                .save(manager.getDisk().get());
+
+        // the trigger never fires since nothing pulses the manager
+        manager.setProgram("""
+                                   EVERY REDSTONE PULSE DO
+                                       INPUT FROM a
+                                       OUTPUT TO b
+                                   END
+                                   """.stripTrailing().stripIndent());
+        assertManagerRunning(manager);
+        Program program = manager.getProgram().get();
+
+        // warm up so the execution context is built and the JIT has settled
+        for (int i = 0; i < 10_000; i++) {
+            program.tick(manager);
+        }
+
+        // measure
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int iterations = 100_000;
+        long before = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            program.tick(manager);
+        }
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - before;
+
+        // less than a byte per tick means nothing is allocated in steady state
+        assertTrue(
+                allocated < iterations,
+                "Idle program allocated " + allocated + " bytes over " + iterations + " ticks"
+        );
+        helper.succeed();
+    }
+
+    @GameTest(template = "1x2x1", batch = "laggy")
+    public static void item_batch_insert_touches(GameTestHelper helper) {
+        AtomicInteger calls = new AtomicInteger();
+        ItemStackHandler handler = new ItemStackHandler(27) {
+            @Override
+            public @NotNull ItemStack insertItem(int slot, @NotNull ItemStack stack, boolean simulate) {
+                calls.incrementAndGet();
+                return super.insertItem(slot, stack, simulate);
+            }
+        };
+        ResourceType<ItemStack, Item, IItemHandler> type = SFMResourceTypes.ITEM.get();
+        int[] slots = IntStream.range(0, handler.getSlots()).toArray();
+
+        // a stack going into empty slots only touches the first one
+        ItemStack remainder = type.insert(handler, slots, 0, slots.length, new ItemStack(Items.DIRT, 64), false);
+        assertTrue(remainder.isEmpty(), "dirt did not fit");
+        assertTrue(calls.get() == 1, "expected 1 insert for an empty run, got " + calls.get());
+
+        // items have no batch insert, topping up nearly full slots is still one call per slot
+        for (int i = 0; i < handler.getSlots(); i++) {
+            handler.setStackInSlot(i, new ItemStack(Items.STONE, 63));
+        }
+        calls.set(0);
+        remainder = type.insert(handler, slots, 0, slots.length, new ItemStack(Items.STONE, 64), true);
+        assertTrue(remainder.getCount() == 64 - 27, "expected 27 stone to fit, " + remainder.getCount() + " left over");
+        assertTrue(calls.get() == 27, "expected 27 inserts for 27 nearly full slots, got " + calls.get());
+
+        // measure the worst case
+        int iterations = 100_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            type.insert(handler, slots, 0, slots.length, new ItemStack(Items.STONE, 64), true);
+        }
+        long elapsed = System.nanoTime() - start;
+        SFM.LOGGER.info(
+                "Simulated inserting into 27 nearly full item slots took {}ns per run",
+                elapsed / iterations
+        );
+        helper.succeed();
+    }
+
+    @GameTest(template = "3x2x1", batch = "laggy")
+    public static void lowered_trigger_speed(GameTestHelper helper) {
+        BlockPos managerPos = new BlockPos(1, 2, 0);
+        BlockPos barrelPos = new BlockPos(0, 2, 0);
+        helper.setBlock(managerPos, SFMBlocks.MANAGER_BLOCK.get());
+        helper.setBlock(barrelPos, SFMBlocks.TEST_BARREL_BLOCK.get());
+        var barrel = getItemHandler(helper, barrelPos);
+        barrel.insertItem(0, new ItemStack(Items.DIRT, 64), false);
+        ManagerBlockEntity manager = (ManagerBlockEntity) helper.getBlockEntity(managerPos);
+        manager.setItem(0, new ItemStack(SFMItems.DISK_ITEM.get()));
+
+        // the conditions pass and the slots are gathered, but only stone may be output so nothing moves
+        // and every run does the same work
+        StringBuilder programString = new StringBuilder("EVERY 20 TICKS DO\n");
+        for (int i = 0; i < 50; i++) {
+            programString.append("""
+                                         IF (a HAS gt 0 dirt OR a HAS gt 0 stone) AND NOT a HAS lt 1 dirt THEN
+                                             INPUT FROM a
+                                             OUTPUT stone TO a
+                                         END
+                                         """);
+        }
+        programString.append("END");
+        manager.setProgram(programString.toString());
+        LabelPositionHolder.empty()
+                .add("a", helper.absolutePos(barrelPos))
+                .save(manager.getDisk().get());
+        Program program = manager.getProgram().get();
+        Trigger trigger = program.triggers().get(0);
+        ProgramContext context = new ProgramContext(program, manager, new DefaultProgramBehaviour());
+
+        int iterations = 2_000;
+        // the fastest of several passes for each path, the first pass warms up both paths
+        long[] elapsed = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int pass = 0; pass < 4; pass++) {
+            for (int lowered = 0; lowered < 2; lowered++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    context.reset();
+                    if (lowered == 1) {
+                        program.getLoweredTrigger(trigger).tick(context);
+                    } else {
+                        trigger.tick(context);
+                    }
+                    context.free();
+                }
+                if (pass > 0) {
+                    elapsed[lowered] = Math.min(elapsed[lowered], System.nanoTime() - start);
+                }
+            }
+        }
+        SFM.LOGGER.info(
+                "Running 50 if statements took {}ns per run through the AST and {}ns per run lowered",
+                elapsed[0] / iterations,
+                elapsed[1] / iterations
+        );
+        assertTrue(count(barrel, Items.DIRT) == 64, "nothing should have moved");
+        // leave some room for noise, the lowered form skips work so it should never be meaningfully slower
+        assertTrue(
+                elapsed[1] <= elapsed[0] * 1.1,
+                "lowered trigger took " + elapsed[1] / iterations + "ns per run, slower than the AST at "
+                + elapsed[0] / iterations + "ns per run"
+        );
+        helper.succeed();
+    }
 }
@@ -31,7 +31,8 @@ public class LabelGunScreen extends Screen {
 
     public LabelGunScreen(ItemStack labelGunStack, InteractionHand hand) {
         super(LocalizationKeys.LABEL_GUN_GUI_TITLE.getComponent());
-        LABEL_HOLDER = LabelPositionHolder.from(labelGunStack);
+        // the screen changes its labels before the server confirms, so it needs its own copy
+        LABEL_HOLDER = LabelPositionHolder.from(labelGunStack).toOwned();
         HAND = hand;
     }
 
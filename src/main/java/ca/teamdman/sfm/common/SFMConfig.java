@@ -43,6 +43,11 @@ public class SFMConfig {
         public final ForgeConfigSpec.IntValue timerTriggerMinimumIntervalInTicksWhenOnlyForgeEnergyIO;
         public final ForgeConfigSpec.IntValue maxIfStatementsInTriggerBeforeSimulationIsntAllowed;
         public final ForgeConfigSpec.ConfigValue<List<?  extends String>> disallowedResourceTypesForTransfer;
+        public final ForgeConfigSpec.BooleanValue skipUnchangedTimerTriggers;
+        public final ForgeConfigSpec.DoubleValue programTickTimeBudgetMilliseconds;
+        public final ForgeConfigSpec.DoubleValue triggerTimeSliceMilliseconds;
+        public final ForgeConfigSpec.IntValue compiledProgramCacheSize;
+        public final ForgeConfigSpec.BooleanValue trackSlotPoolLeaks;
 
         Common(ForgeConfigSpec.Builder builder) {
             timerTriggerMinimumIntervalInTicks = builder
@@ -65,6 +70,37 @@ public class SFMConfig {
                             List::of,
                             String.class::isInstance
                     );
+            skipUnchangedTimerTriggers = builder
+                    .comment(
+                            "Skip timer triggers that moved nothing last time when the inventories they use haven't changed",
+                            "Triggers using redstone conditions or round robin are never skipped"
+                    )
+                    .define("skipUnchangedTimerTriggers", false);
+            programTickTimeBudgetMilliseconds = builder
+                    .comment(
+                            "How many milliseconds all managers together may spend running triggers each server tick",
+                            "Timer triggers that don't fit are deferred to the following ticks",
+                            "Set to 0 to disable"
+                    )
+                    .defineInRange("programTickTimeBudgetMilliseconds", 0.0, 0.0, 1000.0);
+            triggerTimeSliceMilliseconds = builder
+                    .comment(
+                            "How many milliseconds a timer trigger may run before it stops between statements and continues next tick",
+                            "Set to 0 to disable"
+                    )
+                    .defineInRange("triggerTimeSliceMilliseconds", 0.0, 0.0, 1000.0);
+            compiledProgramCacheSize = builder
+                    .comment(
+                            "How many distinct programs to remember the parse of, copies of the same program share an entry",
+                            "Set to 0 to disable"
+                    )
+                    .defineInRange("compiledProgramCacheSize", 128, 0, Integer.MAX_VALUE);
+            trackSlotPoolLeaks = builder
+                    .comment(
+                            "Debug option, log slots that a manager gathered but never released",
+                            "Costs time on every tick, only takes effect for programs loaded after it is changed"
+                    )
+                    .define("trackSlotPoolLeaks", false);
         }
     }
 
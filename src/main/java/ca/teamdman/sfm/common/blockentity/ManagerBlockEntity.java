@@ -9,17 +9,26 @@ import ca.teamdman.sfm.common.logging.TranslatableLogger;
 import ca.teamdman.sfm.common.net.ClientboundManagerGuiUpdatePacket;
 import ca.teamdman.sfm.common.net.ClientboundManagerLogLevelUpdatedPacket;
 import ca.teamdman.sfm.common.net.ClientboundManagerLogsPacket;
+import ca.teamdman.sfm.common.program.DefaultProgramBehaviour;
 import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import ca.teamdman.sfm.common.program.ProgramCompiler;
+import ca.teamdman.sfm.common.program.ProgramContext;
+import ca.teamdman.sfm.common.program.ProgramTickBudget;
+import ca.teamdman.sfm.common.program.TimerTriggerScheduler;
 import ca.teamdman.sfm.common.registry.SFMBlockEntities;
 import ca.teamdman.sfm.common.registry.SFMPackets;
 import ca.teamdman.sfm.common.handler.OpenContainerTracker;
 import ca.teamdman.sfm.common.util.SFMContainerUtil;
 import ca.teamdman.sfml.ast.Program;
+import ca.teamdman.sfml.ast.Trigger;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.NonNullList;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.chat.Component;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.world.ContainerHelper;
 import net.minecraft.world.entity.player.Inventory;
 import net.minecraft.world.entity.player.Player;
@@ -42,10 +51,16 @@ public class ManagerBlockEntity extends BaseContainerBlockEntity {
     private final NonNullList<ItemStack> ITEMS = NonNullList.withSize(1, ItemStack.EMPTY);
     private final long[] tickTimeNanos = new long[TICK_TIME_HISTORY_SIZE];
     private @Nullable Program program = null;
+    private @Nullable ProgramContext programContext = null;
     private int tick = 0;
     private int unprocessedRedstonePulses = 0; // used by redstone trigger
     private boolean shouldRebuildProgram = false;
     private int tickIndex = 0;
+    private long triggerSkipCount = 0; // used by trigger fingerprints
+    private final Int2IntOpenHashMap timerTriggerPhases = new Int2IntOpenHashMap(); // used by timer trigger
+    private final ReferenceLinkedOpenHashSet<Trigger> deferredTriggers = new ReferenceLinkedOpenHashSet<>(); // used by tick budget
+    private long triggerDeferralCount = 0; // used by tick budget
+    private int compileGeneration = 0; // used to discard outdated background compiles
 
     public ManagerBlockEntity(BlockPos blockPos, BlockState blockState) {
         super(SFMBlockEntities.MANAGER_BLOCK_ENTITY.get(), blockPos, blockState);
@@ -75,7 +90,7 @@ public class ManagerBlockEntity extends BaseContainerBlockEntity {
         long start = System.nanoTime();
         manager.tick++;
         if (manager.shouldRebuildProgram) {
-            manager.rebuildProgramAndUpdateDisk();
+            manager.rebuildProgramAndUpdateDiskAsync();
             manager.shouldRebuildProgram = false;
         }
         if (manager.program != null) {
@@ -117,10 +132,38 @@ public class ManagerBlockEntity extends BaseContainerBlockEntity {
         return tick;
     }
 
+    /**
+     * Get the tick within the interval on which timer triggers of this manager should fire.
+     * <p>
+     * The phase is assigned on first use and kept for as long as the manager is loaded.
+     */
+    public int getTimerTriggerPhase(int interval) {
+        if (!timerTriggerPhases.containsKey(interval)) {
+            timerTriggerPhases.put(interval, TimerTriggerScheduler.assignPhase(interval));
+        }
+        return timerTriggerPhases.get(interval);
+    }
+
     public Optional<Program> getProgram() {
         return Optional.ofNullable(program);
     }
 
+    /**
+     * Get the execution context used to tick the program.
+     * <p>
+     * The context lives across ticks and is only rebuilt when the program, labels, or cable network change.
+     */
+    public ProgramContext getProgramContext(Program program) {
+        if (programContext == null || !programContext.isValidFor(program, getItem(0))) {
+            if (programContext != null) {
+                // release the slots of any suspended trigger
+                programContext.free();
+            }
+            programContext = new ProgramContext(program, this, new DefaultProgramBehaviour());
+        }
+        return programContext;
+    }
+
     public void setProgram(String program) {
         getDisk().ifPresent(disk -> {
             DiskItem.setProgram(disk, program);
@@ -129,6 +172,19 @@ public class ManagerBlockEntity extends BaseContainerBlockEntity {
         });
     }
 
+    /**
+     * Save the program to the disk and compile it in the background.
+     * <p>
+     * The previous program keeps running until the new one is ready.
+     */
+    public void setProgramAsync(String program) {
+        getDisk().ifPresent(disk -> {
+            DiskItem.setProgram(disk, program);
+            rebuildProgramAndUpdateDiskAsync();
+            setChanged();
+        });
+    }
+
     public void trackRedstonePulseUnprocessed() {
         unprocessedRedstonePulses++;
     }
@@ -141,6 +197,79 @@ public class ManagerBlockEntity extends BaseContainerBlockEntity {
         return unprocessedRedstonePulses;
     }
 
+    public void trackTriggerSkipped() {
+        triggerSkipCount++;
+    }
+
+    /**
+     * @return how many times a trigger was skipped because its inventories were unchanged since it last moved nothing
+     */
+    public long getTriggerSkipCount() {
+        return triggerSkipCount;
+    }
+
+    /**
+     * Remember a due trigger that didn't fit in the server-wide time budget so it can run on a later tick.
+     */
+    public void deferTrigger(Trigger trigger) {
+        if (deferredTriggers.add(trigger)) {
+            triggerDeferralCount++;
+        }
+        ProgramTickBudget.enqueue(this);
+    }
+
+    /**
+     * Called when a trigger runs on time, so that an earlier deferral of it doesn't run it a second time.
+     */
+    public void forgetDeferredTrigger(Trigger trigger) {
+        deferredTriggers.remove(trigger);
+    }
+
+    public boolean hasDeferredTriggers() {
+        return !deferredTriggers.isEmpty();
+    }
+
+    /**
+     * @return how many times a trigger was postponed because the server-wide time budget was spent
+     */
+    public long getTriggerDeferralCount() {
+        return triggerDeferralCount;
+    }
+
+    /**
+     * Run the triggers that were deferred in previous ticks, for as long as the time budget allows.
+     * <p>
+     * Called by {@link ProgramTickBudget} at the start of the server tick.
+     */
+    public void tickDeferredTriggers() {
+        if (isRemoved() || program == null) {
+            deferredTriggers.clear();
+            return;
+        }
+        if (deferredTriggers.isEmpty()) {
+            // they all ran on time since they were deferred
+            return;
+        }
+        var context = getProgramContext(program);
+        if (context.getSuspendedTrigger() != null) {
+            // the suspended trigger continues in the regular tick, wait for it to finish
+            ProgramTickBudget.enqueue(this);
+            return;
+        }
+        context.reset();
+        while (!deferredTriggers.isEmpty()
+               && ProgramTickBudget.hasTimeRemaining()
+               && context.getSuspendedTrigger() == null) {
+            program.tickTrigger(context, deferredTriggers.removeFirst());
+        }
+        if (!deferredTriggers.isEmpty()) {
+            ProgramTickBudget.enqueue(this);
+        }
+        if (context.didSomething()) {
+            sendUpdatePacket();
+        }
+    }
+
     public State getState() {
         if (getDisk().isEmpty()) return State.NO_DISK;
         if (getProgramString().isEmpty()) return State.NO_PROGRAM;
@@ -165,12 +294,63 @@ public class ManagerBlockEntity extends BaseContainerBlockEntity {
 
     public void rebuildProgramAndUpdateDisk() {
         if (level != null && level.isClientSide()) return;
-        this.program = getDisk()
-                .flatMap(itemStack -> DiskItem.compileAndUpdateErrorsAndWarnings(itemStack, this))
-                .orElse(null);
+        compileGeneration++;
+        swapProgram(getDisk()
+                            .flatMap(itemStack -> DiskItem.compileAndUpdateErrorsAndWarnings(itemStack, this))
+                            .orElse(null));
+    }
+
+    /**
+     * Compile the program on the disk in the background, see {@link ProgramCompiler}.
+     * <p>
+     * The previous program keeps running until the new one is swapped in on the server thread.
+     * Only the warnings that need the world are gathered on the server thread.
+     */
+    public void rebuildProgramAndUpdateDiskAsync() {
+        if (level == null || level.isClientSide()) return;
+        MinecraftServer server = level.getServer();
+        Optional<ItemStack> disk = getDisk();
+        if (server == null || disk.isEmpty()) {
+            rebuildProgramAndUpdateDisk();
+            return;
+        }
+        int generation = ++compileGeneration;
+        logger.info(x -> x.accept(LocalizationKeys.PROGRAM_COMPILE_FROM_DISK_BEGIN.get()));
+        ProgramCompiler.compileAsync(
+                server,
+                DiskItem.getProgram(disk.get()),
+                LabelPositionHolder.from(disk.get()).toOwned(),
+                result -> {
+                    // the disk changed since, or the manager is gone
+                    if (generation != compileGeneration || isRemoved()) return;
+                    getDisk().ifPresent(current -> swapProgram(DiskItem
+                                                                       .updateErrorsAndWarnings(current, this, result)
+                                                                       .orElse(null)));
+                }
+        );
+    }
+
+    private void swapProgram(@Nullable Program program) {
+        if (this.programContext != null) {
+            // release the slots of any suspended trigger
+            this.programContext.free();
+            this.programContext = null;
+        }
+        this.deferredTriggers.clear();
+        this.program = program;
         sendUpdatePacket();
     }
 
+    @Override
+    public void setRemoved() {
+        super.setRemoved();
+        if (programContext != null) {
+            // release the slots of any suspended trigger
+            programContext.free();
+            programContext = null;
+        }
+    }
+
     @Override
     public int getContainerSize() {
         return ITEMS.size();
@@ -23,7 +23,9 @@ public class CableNetwork {
 
     protected final Level LEVEL;
     protected final LongSet CABLE_POSITIONS = new LongOpenHashSet();
+    // shared by every manager on the network, the stacks they read are not, see InventorySnapshot
     protected final CapabilityCache CAPABILITY_CACHE = new CapabilityCache();
+    private boolean valid = true;
 
     public CableNetwork(Level level) {
         this.LEVEL = level;
@@ -154,6 +156,18 @@ public class CableNetwork {
         return CABLE_POSITIONS.isEmpty();
     }
 
+    /**
+     * A network is invalidated when it is replaced in the {@link CableNetworkManager},
+     * letting anything holding on to it know that it should look up the network again.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
     public Stream<BlockPos> getCablePositions() {
         return CABLE_POSITIONS.longStream().mapToObj(BlockPos::of);
     }
@@ -141,6 +141,7 @@ public class CableNetworkManager {
     }
 
     public static void clear() {
+        NETWORKS_BY_LEVEL.values().forEach(networks -> networks.forEach(CableNetwork::invalidate));
         NETWORKS_BY_LEVEL.clear();
     }
 
@@ -151,6 +152,9 @@ public class CableNetworkManager {
     }
 
     private static void removeNetwork(CableNetwork network) {
+        // Let anything holding on to this network know that it has been replaced
+        network.invalidate();
+
         // Unregister network from level lookup
         NETWORKS_BY_LEVEL.getOrDefault(network.getLevel(), Collections.emptyList()).remove(network);
 
@@ -197,6 +201,7 @@ public class CableNetworkManager {
         iterator.forEachRemaining(other -> {
             main.mergeNetwork(other);
             levelMap.remove(other); // unregister the network
+            other.invalidate();
         });
         // the main network now contains all the cable positions of the others
         // when we addNetwork here, it _should_ clobber all the old entries to point to this network instead
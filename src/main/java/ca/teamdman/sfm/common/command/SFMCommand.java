@@ -1,11 +1,15 @@
 package ca.teamdman.sfm.common.command;
 
 import ca.teamdman.sfm.SFM;
+import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.cablenetwork.CableNetworkManager;
+import ca.teamdman.sfm.common.localization.LocalizationKeys;
 import ca.teamdman.sfm.common.watertanknetwork.WaterNetworkManager;
 import net.minecraft.commands.Commands;
+import net.minecraft.commands.arguments.coordinates.BlockPosArgument;
 import net.minecraft.commands.arguments.blocks.BlockInput;
 import net.minecraft.commands.arguments.blocks.BlockStateArgument;
+import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.block.Block;
 import net.minecraftforge.event.RegisterCommandsEvent;
@@ -52,6 +56,25 @@ public class SFMCommand {
                                                });
                                                return SINGLE_SUCCESS;
                                            })));
+        command.then(Commands.literal("show_manager_stats")
+                             .requires(source -> source.hasPermission(2))
+                             .then(Commands.argument("pos", BlockPosArgument.blockPos())
+                                           .executes(ctx -> {
+                                               BlockPos pos = BlockPosArgument.getLoadedBlockPos(ctx, "pos");
+                                               if (!(ctx.getSource().getLevel().getBlockEntity(pos) instanceof ManagerBlockEntity manager)) {
+                                                   ctx.getSource().sendFailure(LocalizationKeys.COMMAND_SHOW_MANAGER_STATS_NOT_A_MANAGER.getComponent());
+                                                   return 0;
+                                               }
+                                               ctx.getSource().sendSuccess(
+                                                       LocalizationKeys.COMMAND_SHOW_MANAGER_STATS.getComponent(
+                                                               pos.toShortString(),
+                                                               manager.getTriggerDeferralCount(),
+                                                               manager.getTriggerSkipCount()
+                                                       ),
+                                                       false
+                                               );
+                                               return SINGLE_SUCCESS;
+                                           })));
         event.getDispatcher().register(command);
     }
 }
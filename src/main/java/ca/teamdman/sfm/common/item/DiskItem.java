@@ -7,6 +7,7 @@ import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.localization.LocalizationKeys;
 import ca.teamdman.sfm.common.net.ServerboundDiskItemSetProgramPacket;
 import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import ca.teamdman.sfm.common.program.ProgramCompiler;
 import ca.teamdman.sfm.common.program.ProgramLinter;
 import ca.teamdman.sfm.common.registry.SFMItems;
 import ca.teamdman.sfm.common.registry.SFMPackets;
@@ -35,7 +36,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class DiskItem extends Item {
@@ -60,45 +60,56 @@ public class DiskItem extends Item {
         if (manager != null) {
             manager.logger.info(x -> x.accept(LocalizationKeys.PROGRAM_COMPILE_FROM_DISK_BEGIN.get()));
         }
-        AtomicReference<Program> rtn = new AtomicReference<>(null);
-        Program.compile(
-                getProgram(stack),
-                successProgram -> {
-                    ArrayList<TranslatableContents> warnings = ProgramLinter.gatherWarnings(successProgram, LabelPositionHolder.from(stack), manager);
-
-                    // Log to disk
-                    if (manager != null) {
-                        manager.logger.info(x -> x.accept(LocalizationKeys.PROGRAM_COMPILE_SUCCEEDED_WITH_WARNINGS.get(
-                                successProgram.name(),
-                                warnings.size()
-                        )));
-                        manager.logger.warn(warnings::forEach);
-                    }
+        var result = ProgramCompiler.compile(getProgram(stack), LabelPositionHolder.from(stack));
+        return updateErrorsAndWarnings(stack, manager, result);
+    }
 
-                    // Update disk properties
-                    setProgramName(stack, successProgram.name());
-                    setWarnings(stack, warnings);
-                    setErrors(stack, Collections.emptyList());
-
-                    // Track result
-                    rtn.set(successProgram);
-                },
-                errors -> {
-                    List<TranslatableContents> warnings = Collections.emptyList();
-
-                    // Log to disk
-                    if (manager != null) {
-                        manager.logger.error(x -> x.accept(LocalizationKeys.PROGRAM_COMPILE_FAILED_WITH_ERRORS.get(
-                                errors.size())));
-                        manager.logger.error(errors::forEach);
-                    }
+    /**
+     * Add the world dependent warnings to a compile result, log it, and save the errors and warnings to the disk.
+     * <p>
+     * Must be called on the server thread, see {@link ProgramCompiler#compileAsync}.
+     */
+    public static Optional<Program> updateErrorsAndWarnings(
+            ItemStack stack,
+            @Nullable ManagerBlockEntity manager,
+            ProgramCompiler.Result result
+    ) {
+        Program successProgram = result.program();
+        if (successProgram != null) {
+            ArrayList<TranslatableContents> warnings = result.warnings();
+            if (manager != null) {
+                ProgramLinter.addWorldWarnings(successProgram, LabelPositionHolder.from(stack), manager, warnings);
+            }
 
-                    // Update disk properties
-                    setWarnings(stack, warnings);
-                    setErrors(stack, errors);
-                }
-        );
-        return Optional.ofNullable(rtn.get());
+            // Log to disk
+            if (manager != null) {
+                manager.logger.info(x -> x.accept(LocalizationKeys.PROGRAM_COMPILE_SUCCEEDED_WITH_WARNINGS.get(
+                        successProgram.name(),
+                        warnings.size()
+                )));
+                manager.logger.warn(warnings::forEach);
+            }
+
+            // Update disk properties
+            setProgramName(stack, successProgram.name());
+            setWarnings(stack, warnings);
+            setErrors(stack, Collections.emptyList());
+        } else {
+            List<TranslatableContents> errors = result.errors();
+            List<TranslatableContents> warnings = Collections.emptyList();
+
+            // Log to disk
+            if (manager != null) {
+                manager.logger.error(x -> x.accept(LocalizationKeys.PROGRAM_COMPILE_FAILED_WITH_ERRORS.get(
+                        errors.size())));
+                manager.logger.error(errors::forEach);
+            }
+
+            // Update disk properties
+            setWarnings(stack, warnings);
+            setErrors(stack, errors);
+        }
+        return Optional.ofNullable(successProgram);
     }
 
     public static List<TranslatableContents> getErrors(ItemStack stack) {
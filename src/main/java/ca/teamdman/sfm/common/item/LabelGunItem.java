@@ -38,7 +38,7 @@ public class LabelGunItem extends Item {
             String label
     ) {
         if (label.isEmpty()) return;
-        LabelPositionHolder.from(gun).addReferencedLabel(label).save(gun);
+        LabelPositionHolder.from(gun).toOwned().addReferencedLabel(label).save(gun);
         gun.getOrCreateTag().putString("sfm:active_label", label);
     }
 
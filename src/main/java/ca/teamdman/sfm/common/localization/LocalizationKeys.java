@@ -399,6 +399,26 @@ public final class LocalizationKeys {
             "log.sfm.statement.tick.trigger",
             "TRIGGERED FROM %s"
     );
+    public static final LocalizationEntry LOG_PROGRAM_TICK_TRIGGER_SKIPPED = new LocalizationEntry(
+            "log.sfm.statement.tick.trigger.skipped",
+            "Skipped %s since its inventories are unchanged and it moved nothing last time (%d skips so far)"
+    );
+    public static final LocalizationEntry LOG_PROGRAM_TICK_TRIGGER_SUSPENDED = new LocalizationEntry(
+            "log.sfm.statement.tick.trigger.suspended",
+            "Suspended %s since it ran out of time, it will continue next tick"
+    );
+    public static final LocalizationEntry LOG_PROGRAM_TICK_TRIGGER_RESUMED = new LocalizationEntry(
+            "log.sfm.statement.tick.trigger.resumed",
+            "Resuming %s from where it was suspended"
+    );
+    public static final LocalizationEntry COMMAND_SHOW_MANAGER_STATS = new LocalizationEntry(
+            "command.sfm.show_manager_stats",
+            "Manager at %s: %d triggers deferred by the tick time budget, %d triggers skipped as unchanged"
+    );
+    public static final LocalizationEntry COMMAND_SHOW_MANAGER_STATS_NOT_A_MANAGER = new LocalizationEntry(
+            "command.sfm.show_manager_stats.not_a_manager",
+            "There is no manager at that position"
+    );
     public static final LocalizationEntry LOG_PROGRAM_TICK_INPUT_STATEMENT = new LocalizationEntry(
             "log.sfm.statement.tick.input",
             "%s"
@@ -31,7 +31,7 @@ public record ServerboundLabelGunPrunePacket(
             }
             var stack = sender.getItemInHand(msg.hand);
             if (stack.getItem() instanceof LabelGunItem) {
-                LabelPositionHolder.from(stack).prune().save(stack);
+                LabelPositionHolder.from(stack).toOwned().prune().save(stack);
             }
         });
         contextSupplier.get().setPacketHandled(true);
@@ -80,7 +80,7 @@ public record ServerboundLabelGunUsePacket(
                         // save gun labels to disk
                         gunLabels.save(disk);
                         // rebuild program
-                        manager.rebuildProgramAndUpdateDisk();
+                        manager.rebuildProgramAndUpdateDiskAsync();
                         // mark manager dirty
                         manager.setChanged();
                         // give feedback to player
@@ -124,8 +124,8 @@ public record ServerboundLabelGunUsePacket(
                     }, pos).toList();
 
                     // check if any of the positions are missing the label
-                    var existing = new HashSet<>(gunLabels.getPositions(activeLabel));
-                    boolean anyMissing = positions.stream().anyMatch(p -> !existing.contains(p));
+                    var existing = gunLabels.getPositions(activeLabel);
+                    boolean anyMissing = positions.stream().anyMatch(p -> !existing.contains(p.asLong()));
 
                     // apply or strip label from all positions
                     if (anyMissing) {
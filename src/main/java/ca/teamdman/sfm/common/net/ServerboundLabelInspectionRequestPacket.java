@@ -12,6 +12,7 @@ import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.network.NetworkEvent;
 import net.minecraftforge.network.PacketDistributor;
 
+import java.util.List;
 import java.util.function.Supplier;
 
 public record ServerboundLabelInspectionRequestPacket(
@@ -54,11 +55,16 @@ public record ServerboundLabelInspectionRequestPacket(
                 return;
             }
             SFM.LOGGER.info("building payload");
+            List<BlockPos> positions = labelPositionHolder
+                    .getPositions(msg.label())
+                    .stream()
+                    .map(BlockPos::of)
+                    .toList();
             StringBuilder payload = new StringBuilder();
             payload.append("-- Positions for label \"").append(msg.label()).append("\" --\n");
-            payload.append(labelPositionHolder.getPositions(msg.label()).size()).append(" assignments\n");
+            payload.append(positions.size()).append(" assignments\n");
             payload.append("-- Summary --\n");
-            labelPositionHolder.getPositions(msg.label()).forEach(pos -> {
+            positions.forEach(pos -> {
                 payload
                         .append(pos.getX())
                         .append(",")
@@ -78,7 +84,7 @@ public record ServerboundLabelInspectionRequestPacket(
             });
 
             payload.append("\n\n\n-- Detailed --\n");
-            for (BlockPos pos : labelPositionHolder.getPositions(msg.label())) {
+            for (BlockPos pos : positions) {
                 if (payload.length() > 20_000) {
                     payload.append("... (truncated)");
                     break;
@@ -37,7 +37,7 @@ public record ServerboundManagerProgramPacket(
                 ManagerBlockEntity.class,
                 msg.pos,
                 msg.windowId,
-                (menu, manager) -> manager.setProgram(msg.program())
+                (menu, manager) -> manager.setProgramAsync(msg.program())
         );
         contextSupplier.get().setPacketHandled(true);
     }
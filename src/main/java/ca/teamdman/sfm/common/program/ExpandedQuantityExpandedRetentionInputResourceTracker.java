@@ -5,21 +5,17 @@ import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceLocation;
 
 @SuppressWarnings("DuplicatedCode")
 public class ExpandedQuantityExpandedRetentionInputResourceTracker implements IInputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
-    private final Long2ObjectOpenHashMap<Int2ObjectArrayMap<Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>>>
+    private final Long2ObjectOpenHashMap<Int2ObjectArrayMap<Reference2LongOpenHashMap<Object>>>
             retention_obligations_by_pos_by_slot_by_item = new Long2ObjectOpenHashMap<>();
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            retention_obligations_by_item = new Object2ObjectOpenHashMap<>();
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            transferred_by_item = new Object2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> retention_obligations_by_item = new Reference2LongOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> transferred_by_item = new Reference2LongOpenHashMap<>();
 
     public ExpandedQuantityExpandedRetentionInputResourceTracker(
             ResourceLimit resourceLimit,
@@ -35,15 +31,17 @@ public class ExpandedQuantityExpandedRetentionInputResourceTracker implements II
             STACK stack
     ) {
         long can_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(type);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(type.getItem(stack));
         return transferred_for_item >= can_transfer;
     }
 
+    @Override
+    public void reset() {
+        retention_obligations_by_pos_by_slot_by_item.clear();
+        retention_obligations_by_item.clear();
+        transferred_by_item.clear();
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
@@ -63,13 +61,9 @@ public class ExpandedQuantityExpandedRetentionInputResourceTracker implements II
     ) {
         var posEntry = retention_obligations_by_pos_by_slot_by_item.get(pos.asLong());
         if (posEntry != null) {
-            var resourceTypeEntry = posEntry.get(slot);
-            if (resourceTypeEntry != null) {
-                ResourceLocation item_id = resourceType.getRegistryKey(stack);
-                var itemEntry = resourceTypeEntry.get(resourceType);
-                if (itemEntry != null) {
-                    return itemEntry.getLong(item_id);
-                }
+            var slotEntry = posEntry.get(slot);
+            if (slotEntry != null) {
+                return slotEntry.getLong(resourceType.getItem(stack));
             }
         }
         return 0;
@@ -81,15 +75,7 @@ public class ExpandedQuantityExpandedRetentionInputResourceTracker implements II
             STACK stack
     ) {
         long retention = resource_limit.limit().retention().number().value();
-        long retained_for_item = 0;
-        // don't use getOrDefault to avoid allocations
-        var retained_for_resource_type = retention_obligations_by_item.get(resourceType);
-        if (retained_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            if (retained_for_resource_type.containsKey(item_id)) {
-                retained_for_item = retained_for_resource_type.getLong(item_id);
-            }
-        }
+        long retained_for_item = retention_obligations_by_item.getLong(resourceType.getItem(stack));
         return retention - retained_for_item;
     }
 
@@ -102,14 +88,12 @@ public class ExpandedQuantityExpandedRetentionInputResourceTracker implements II
             BlockPos pos,
             long promise
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
-        retention_obligations_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, promise);
+        Object item = resourceType.getItem(stack);
+        retention_obligations_by_item.addTo(item, promise);
         retention_obligations_by_pos_by_slot_by_item
                 .computeIfAbsent(pos.asLong(), k -> new Int2ObjectArrayMap<>())
-                .computeIfAbsent(slot, k -> new Object2ObjectOpenHashMap<>())
-                .computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, promise);
+                .computeIfAbsent(slot, k -> new Reference2LongOpenHashMap<>())
+                .addTo(item, promise);
     }
 
     @Override
@@ -118,12 +102,7 @@ public class ExpandedQuantityExpandedRetentionInputResourceTracker implements II
             STACK stack
     ) {
         long max_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(resourceType);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(resourceType.getItem(stack));
         return max_transfer - transferred_for_item;
     }
 
@@ -133,8 +112,7 @@ public class ExpandedQuantityExpandedRetentionInputResourceTracker implements II
             STACK stack,
             long amount
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
-        transferred_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, amount);
+        Object item = resourceType.getItem(stack);
+        transferred_by_item.addTo(item, amount);
     }
 }
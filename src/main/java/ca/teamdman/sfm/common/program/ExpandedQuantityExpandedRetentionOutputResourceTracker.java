@@ -3,18 +3,14 @@ package ca.teamdman.sfm.common.program;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-import net.minecraft.resources.ResourceLocation;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 
 @SuppressWarnings("DuplicatedCode")
 public class ExpandedQuantityExpandedRetentionOutputResourceTracker implements IOutputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            retention_obligations_by_item = new Object2ObjectOpenHashMap<>();
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            transferred_by_item = new Object2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> retention_obligations_by_item = new Reference2LongOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> transferred_by_item = new Reference2LongOpenHashMap<>();
 
     public ExpandedQuantityExpandedRetentionOutputResourceTracker(
             ResourceLimit resourceLimit,
@@ -32,25 +28,21 @@ public class ExpandedQuantityExpandedRetentionOutputResourceTracker implements I
         long can_transfer = resource_limit.limit().quantity().number().value();
         long max_put = resource_limit.limit().retention().number().value();
 
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(type);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(type.getItem(stack));
         if (transferred_for_item >= can_transfer) {
             return true;
         }
 
-        long retained_for_item = 0;
-        var retained_for_resource_type = retention_obligations_by_item.get(type);
-        if (retained_for_resource_type != null) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            retained_for_item = retained_for_resource_type.getLong(item_id);
-        }
+        long retained_for_item = retention_obligations_by_item.getLong(type.getItem(stack));
         return retained_for_item >= max_put;
     }
 
+    @Override
+    public void reset() {
+        retention_obligations_by_item.clear();
+        transferred_by_item.clear();
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
@@ -67,9 +59,8 @@ public class ExpandedQuantityExpandedRetentionOutputResourceTracker implements I
             STACK stack
     ) {
         if (matchesStack(stack)) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            retention_obligations_by_item.computeIfAbsent(type, k -> new Object2LongOpenHashMap<>())
-                    .addTo(item_id, type.getAmount(stack));
+            Object item = type.getItem(stack);
+            retention_obligations_by_item.addTo(item, type.getAmount(stack));
         }
     }
 
@@ -79,21 +70,11 @@ public class ExpandedQuantityExpandedRetentionOutputResourceTracker implements I
             STACK stack
     ) {
         long max_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(resourceType);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(resourceType.getItem(stack));
         long unusedQuantity = max_transfer - transferred_for_item;
 
         long max_retain = resource_limit.limit().retention().number().value();
-        long retained_for_item = 0;
-        var retained_for_resource_type = retention_obligations_by_item.get(resourceType);
-        if (retained_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            retained_for_item = retained_for_resource_type.getLong(item_id);
-        }
+        long retained_for_item = retention_obligations_by_item.getLong(resourceType.getItem(stack));
         long remainingRetentionRoom = max_retain - retained_for_item;
 
         return Math.min(unusedQuantity, remainingRetentionRoom);
@@ -105,11 +86,9 @@ public class ExpandedQuantityExpandedRetentionOutputResourceTracker implements I
             STACK stack,
             long amount
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
-        transferred_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, amount);
-        retention_obligations_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, amount);
+        Object item = resourceType.getItem(stack);
+        transferred_by_item.addTo(item, amount);
+        retention_obligations_by_item.addTo(item, amount);
     }
 
     @Override
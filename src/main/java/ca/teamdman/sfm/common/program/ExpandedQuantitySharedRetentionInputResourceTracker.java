@@ -3,20 +3,15 @@ package ca.teamdman.sfm.common.program;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
-import it.unimi.dsi.fastutil.ints.Int2LongArrayMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceLocation;
 
 @SuppressWarnings("DuplicatedCode")
 public class ExpandedQuantitySharedRetentionInputResourceTracker implements IInputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            transferred_by_item = new Object2ObjectOpenHashMap<>();
-    private final Long2ObjectOpenHashMap<Int2LongArrayMap> retention_obligations_by_pos_by_slot = new Long2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> transferred_by_item = new Reference2LongOpenHashMap<>();
+    private final SlotLongTable retention_obligations_by_pos_by_slot = new SlotLongTable();
     private long retention_obligation_progress = 0;
 
     public ExpandedQuantitySharedRetentionInputResourceTracker(
@@ -33,15 +28,17 @@ public class ExpandedQuantitySharedRetentionInputResourceTracker implements IInp
             STACK stack
     ) {
         long can_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(type);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(type.getItem(stack));
         return transferred_for_item >= can_transfer;
     }
 
+    @Override
+    public void reset() {
+        transferred_by_item.clear();
+        retention_obligations_by_pos_by_slot.clear();
+        retention_obligation_progress = 0;
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
@@ -59,11 +56,7 @@ public class ExpandedQuantitySharedRetentionInputResourceTracker implements IInp
             BlockPos pos,
             int slot
     ) {
-        var posEntry = retention_obligations_by_pos_by_slot.get(pos.asLong());
-        if (posEntry == null) {
-            return 0;
-        }
-        return posEntry.getOrDefault(slot, 0);
+        return retention_obligations_by_pos_by_slot.get(pos.asLong(), slot);
     }
 
     @Override
@@ -83,9 +76,7 @@ public class ExpandedQuantitySharedRetentionInputResourceTracker implements IInp
             long promise
     ) {
         this.retention_obligation_progress += promise;
-        this.retention_obligations_by_pos_by_slot
-                .computeIfAbsent(pos.asLong(), k -> new Int2LongArrayMap())
-                .merge(slot, promise, Long::sum);
+        this.retention_obligations_by_pos_by_slot.addTo(pos.asLong(), slot, promise);
     }
 
     @Override
@@ -94,12 +85,7 @@ public class ExpandedQuantitySharedRetentionInputResourceTracker implements IInp
             STACK stack
     ) {
         long max_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(resourceType);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(resourceType.getItem(stack));
         return max_transfer - transferred_for_item;
     }
 
@@ -109,9 +95,8 @@ public class ExpandedQuantitySharedRetentionInputResourceTracker implements IInp
             STACK stack,
             long amount
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
-        transferred_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, amount);
+        Object item = resourceType.getItem(stack);
+        transferred_by_item.addTo(item, amount);
     }
 
 }
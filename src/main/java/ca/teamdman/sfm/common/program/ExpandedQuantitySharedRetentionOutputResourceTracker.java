@@ -3,17 +3,14 @@ package ca.teamdman.sfm.common.program;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-import net.minecraft.resources.ResourceLocation;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 
 @SuppressWarnings("DuplicatedCode")
 public class ExpandedQuantitySharedRetentionOutputResourceTracker implements IOutputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
     private long retention_obligation_progress = 0;
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            transferred_by_item = new Object2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> transferred_by_item = new Reference2LongOpenHashMap<>();
 
     public ExpandedQuantitySharedRetentionOutputResourceTracker(
             ResourceLimit resourceLimit,
@@ -35,18 +32,19 @@ public class ExpandedQuantitySharedRetentionOutputResourceTracker implements IOu
         }
 
         long can_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(type);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(type.getItem(stack));
         if (transferred_for_item >= can_transfer) {
             return true;
         }
         return false;
     }
 
+    @Override
+    public void reset() {
+        transferred_by_item.clear();
+        retention_obligation_progress = 0;
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
@@ -73,12 +71,7 @@ public class ExpandedQuantitySharedRetentionOutputResourceTracker implements IOu
             STACK stack
     ) {
         long max_transfer = resource_limit.limit().quantity().number().value();
-        long transferred_for_item = 0;
-        var transferred_for_resource_type = transferred_by_item.get(resourceType);
-        if (transferred_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            transferred_for_item = transferred_for_resource_type.getLong(item_id);
-        }
+        long transferred_for_item = transferred_by_item.getLong(resourceType.getItem(stack));
         long unusedQuantity = max_transfer - transferred_for_item;
 
         long max_retain = resource_limit.limit().retention().number().value();
@@ -93,9 +86,8 @@ public class ExpandedQuantitySharedRetentionOutputResourceTracker implements IOu
             STACK stack,
             long amount
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
-        transferred_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, amount);
+        Object item = resourceType.getItem(stack);
+        transferred_by_item.addTo(item, amount);
         retention_obligation_progress += amount;
     }
 
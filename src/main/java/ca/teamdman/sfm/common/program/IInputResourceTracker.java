@@ -10,6 +10,11 @@ public interface IInputResourceTracker {
 
     ResourceIdSet getExclusions();
 
+    /**
+     * Forget everything that was tracked so that the tracker can be used for another gather.
+     */
+    void reset();
+
     <STACK, CAP, ITEM> boolean isDone(
             ResourceType<STACK, ITEM, CAP> type,
             STACK stack
@@ -0,0 +1,202 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraftforge.common.capabilities.Capability;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the stacks read from inventories during a trigger so that statements looking at the same slots
+ * don't have to ask the capability again.
+ * The stacks are copies, so they show the slot as it was when it was read and must not be modified.
+ * <p>
+ * Only conditions and slot matching read from it, extraction always asks the capability,
+ * see {@link LimitedInputSlot#peekExtractPotential()}.
+ * <p>
+ * Everything known about a position is forgotten when SFM extracts from or inserts into it,
+ * see {@link #invalidate(BlockPos)}.
+ * The whole snapshot is cleared when the trigger finishes or is suspended since other things in the world may change the inventories.
+ * <p>
+ * Each {@link ProgramContext} has its own snapshot, it is not shared by the managers of a {@link ca.teamdman.sfm.common.cablenetwork.CableNetwork}.
+ * Other block entities tick between managers, so a snapshot kept for the whole server tick would let a manager
+ * check conditions and retention limits against stacks that have since changed.
+ * What managers on a network do share is the capabilities they resolve, see {@link ca.teamdman.sfm.common.cablenetwork.CapabilityCache}.
+ * <p>
+ * Each handler seen gets an entry in an open addressing table keyed by position, direction and capability,
+ * so a repeated read is a single probe sequence followed by an array lookup.
+ * Entries are hashed by position alone, which keeps every entry of a position in the same probe run for {@link #invalidate(BlockPos)}.
+ * <p>
+ * Like {@link SlotLongTable}, {@link #clear()} only advances a generation counter.
+ * The stack arrays of old entries are kept and reused by whichever handler takes their place, so clearing allocates nothing.
+ */
+public class InventorySnapshot {
+    private static final int INITIAL_CAPACITY = 16;
+    private long[] positions;
+    private Direction[] directions;
+    private Capability<?>[] capabilities;
+    private SlotStacks[] slotStacks;
+    private int[] generations;
+    private int generation = 1;
+    private int size = 0;
+
+    public InventorySnapshot() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private static int hash(long pos) {
+        return (int) HashCommon.mix(pos);
+    }
+
+    public <STACK, ITEM, CAP> STACK getStackInSlot(
+            ResourceType<STACK, ITEM, CAP> type,
+            BlockPos pos,
+            Direction direction,
+            CAP cap,
+            int slot
+    ) {
+        SlotStacks found = getSlotStacks(type, pos.asLong(), direction, cap);
+        if (slot >= found.size) {
+            // composter block changes how many slots it has between insertions
+            return type.getStackInSlot(cap, slot);
+        }
+        if (found.versions[slot] != found.version) {
+            // the handler may change the stack it gave us in place, so keep our own copy
+            found.stacks[slot] = type.copy(type.getStackInSlot(cap, slot));
+            found.versions[slot] = found.version;
+        }
+        @SuppressWarnings("unchecked") STACK stack = (STACK) found.stacks[slot];
+        return stack;
+    }
+
+    /**
+     * Forget the stacks read from every capability at this position.
+     * <p>
+     * We don't try to be clever about which slots changed, the handlers seen from different directions
+     * or by different capabilities often share the same underlying inventory.
+     */
+    public void invalidate(BlockPos pos) {
+        long packed = pos.asLong();
+        int mask = positions.length - 1;
+        int i = hash(packed) & mask;
+        while (generations[i] == generation) {
+            if (positions[i] == packed) {
+                slotStacks[i].invalidate();
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        generation++;
+        if (generation == 0) {
+            // wrapped around, entries from long ago could look current again
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    private <CAP> SlotStacks getSlotStacks(
+            ResourceType<?, ?, CAP> type,
+            long pos,
+            Direction direction,
+            CAP cap
+    ) {
+        int mask = positions.length - 1;
+        int i = hash(pos) & mask;
+        while (generations[i] == generation) {
+            if (positions[i] == pos && directions[i] == direction && capabilities[i] == type.CAPABILITY_KIND) {
+                SlotStacks found = slotStacks[i];
+                if (found.handler != cap) {
+                    found.reset(cap, type.getSlots(cap));
+                }
+                return found;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // reuse the stacks left behind by an entry from an earlier generation
+        generations[i] = generation;
+        positions[i] = pos;
+        directions[i] = direction;
+        capabilities[i] = type.CAPABILITY_KIND;
+        SlotStacks found = slotStacks[i];
+        if (found == null) {
+            found = new SlotStacks();
+            slotStacks[i] = found;
+        }
+        found.reset(cap, type.getSlots(cap));
+        if (++size * 2 > positions.length) {
+            grow();
+        }
+        return found;
+    }
+
+    private void allocate(int capacity) {
+        positions = new long[capacity];
+        directions = new Direction[capacity];
+        capabilities = new Capability<?>[capacity];
+        slotStacks = new SlotStacks[capacity];
+        generations = new int[capacity];
+    }
+
+    private void grow() {
+        long[] oldPositions = positions;
+        Direction[] oldDirections = directions;
+        Capability<?>[] oldCapabilities = capabilities;
+        SlotStacks[] oldSlotStacks = slotStacks;
+        int[] oldGenerations = generations;
+        allocate(oldPositions.length * 2);
+        int mask = positions.length - 1;
+        for (int j = 0; j < oldPositions.length; j++) {
+            if (oldGenerations[j] != generation) continue;
+            int i = hash(oldPositions[j]) & mask;
+            while (generations[i] == generation) {
+                i = (i + 1) & mask;
+            }
+            generations[i] = generation;
+            positions[i] = oldPositions[j];
+            directions[i] = oldDirections[j];
+            capabilities[i] = oldCapabilities[j];
+            slotStacks[i] = oldSlotStacks[j];
+        }
+    }
+
+    /**
+     * The stacks read from one handler.
+     * A stack is only current while its version matches, so the whole handler is forgotten by bumping the version.
+     */
+    private static final class SlotStacks {
+        private Object handler;
+        private Object[] stacks = new Object[0];
+        private int[] versions = new int[0];
+        private int version = 1;
+        private int size = 0;
+
+        private void reset(
+                Object handler,
+                int slots
+        ) {
+            this.handler = handler;
+            this.size = slots;
+            if (stacks.length < slots) {
+                stacks = new Object[slots];
+                versions = new int[slots];
+                version = 1;
+            } else {
+                invalidate();
+            }
+        }
+
+        private void invalidate() {
+            version++;
+            if (version == 0) {
+                Arrays.fill(versions, 0);
+                version = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfml.ast.Label;
+import ca.teamdman.sfml.ast.LabelAccess;
+import ca.teamdman.sfml.ast.RoundRobin;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.BlockPos;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The positions of a {@link LabelAccess}, resolved once against a {@link LabelPositionHolder}.
+ * <p>
+ * Positions are kept as packed longs sorted within each label, alongside the index of the label they came from.
+ * Round robin picks an index or a range of this array, so visiting the positions doesn't build any collections.
+ * <p>
+ * {@link ProgramContext} keeps one per list of labels and round robin behaviour and drops them when the labels change,
+ * see {@link ProgramContext#getLabelAccessPositions(LabelAccess)}.
+ */
+public class LabelAccessPositions {
+    private final List<Label> LABELS;
+    private final RoundRobin.Behaviour BEHAVIOUR;
+    private final long[] PACKED;
+    private final BlockPos[] POSITIONS;
+    private final int[] LABEL_INDICES;
+    // where the positions of each label start, with one extra entry marking the end
+    private final int[] LABEL_STARTS;
+
+    private LabelAccessPositions(
+            List<Label> labels,
+            RoundRobin.Behaviour behaviour,
+            long[] packed,
+            int[] labelIndices,
+            int[] labelStarts
+    ) {
+        this.LABELS = labels;
+        this.BEHAVIOUR = behaviour;
+        this.PACKED = packed;
+        this.LABEL_INDICES = labelIndices;
+        this.LABEL_STARTS = labelStarts;
+        this.POSITIONS = new BlockPos[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            POSITIONS[i] = BlockPos.of(packed[i]);
+        }
+    }
+
+    public static LabelAccessPositions compile(
+            LabelAccess labelAccess,
+            LabelPositionHolder labelPositionHolder
+    ) {
+        List<Label> labels = labelAccess.labels();
+        RoundRobin.Behaviour behaviour = labelAccess.roundRobin().getBehaviour();
+        // round robin by block visits each position once even if it has several of the labels
+        LongOpenHashSet seen = behaviour == RoundRobin.Behaviour.BY_BLOCK ? new LongOpenHashSet() : null;
+        int[] labelStarts = new int[labels.size() + 1];
+        int capacity = 0;
+        for (Label label : labels) {
+            capacity += labelPositionHolder.getPositions(label.name()).size();
+        }
+        long[] packed = new long[capacity];
+        int[] labelIndices = new int[capacity];
+        int size = 0;
+        for (int labelIndex = 0; labelIndex < labels.size(); labelIndex++) {
+            int start = size;
+            labelStarts[labelIndex] = start;
+            for (LongIterator it = labelPositionHolder.getPositions(labels.get(labelIndex).name()).iterator(); it.hasNext(); ) {
+                long packedPos = it.nextLong();
+                if (seen != null && !seen.add(packedPos)) continue;
+                packed[size] = packedPos;
+                labelIndices[size] = labelIndex;
+                size++;
+            }
+            Arrays.sort(packed, start, size);
+        }
+        labelStarts[labels.size()] = size;
+        if (size < capacity) {
+            packed = Arrays.copyOf(packed, size);
+            labelIndices = Arrays.copyOf(labelIndices, size);
+        }
+        return new LabelAccessPositions(labels, behaviour, packed, labelIndices, labelStarts);
+    }
+
+    /**
+     * Visit the positions chosen by the round robin, advancing it once.
+     */
+    public void forEach(
+            RoundRobin roundRobin,
+            BiConsumer<Label, BlockPos> consumer
+    ) {
+        int selection = select(roundRobin);
+        int end = getSelectionEnd(selection);
+        for (int i = getSelectionStart(selection); i < end; i++) {
+            consumer.accept(LABELS.get(LABEL_INDICES[i]), POSITIONS[i]);
+        }
+    }
+
+    /**
+     * Advance the round robin once, for callers that want to loop over the chosen positions themselves.
+     *
+     * @return the choice, to be given to {@link #getSelectionStart(int)} and {@link #getSelectionEnd(int)}
+     */
+    public int select(RoundRobin roundRobin) {
+        return switch (BEHAVIOUR) {
+            case BY_LABEL -> roundRobin.next(LABELS.size());
+            case BY_BLOCK -> PACKED.length > 0 ? roundRobin.next(PACKED.length) : -1;
+            case UNMODIFIED -> 0;
+        };
+    }
+
+    /**
+     * @return the index of the first position chosen by {@link #select(RoundRobin)}
+     */
+    public int getSelectionStart(int selection) {
+        return switch (BEHAVIOUR) {
+            case BY_LABEL -> LABEL_STARTS[selection];
+            case BY_BLOCK -> Math.max(selection, 0);
+            case UNMODIFIED -> 0;
+        };
+    }
+
+    /**
+     * @return the index after the last position chosen by {@link #select(RoundRobin)}
+     */
+    public int getSelectionEnd(int selection) {
+        return switch (BEHAVIOUR) {
+            case BY_LABEL -> LABEL_STARTS[selection + 1];
+            case BY_BLOCK -> selection + 1;
+            case UNMODIFIED -> PACKED.length;
+        };
+    }
+
+    public int size() {
+        return PACKED.length;
+    }
+
+    public BlockPos getPosition(int index) {
+        return POSITIONS[index];
+    }
+
+    public Label getLabel(int index) {
+        return LABELS.get(LABEL_INDICES[index]);
+    }
+}
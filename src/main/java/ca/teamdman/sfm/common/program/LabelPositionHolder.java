@@ -1,44 +1,91 @@
 package ca.teamdman.sfm.common.program;
 
 import ca.teamdman.sfm.common.localization.LocalizationKeys;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import it.unimi.dsi.fastutil.objects.ObjectArraySet;
 import net.minecraft.ChatFormatting;
 import net.minecraft.core.BlockPos;
 import net.minecraft.nbt.*;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+/**
+ * The positions assigned to each label, stored as packed {@link BlockPos#asLong()} values.
+ * <p>
+ * Every change gives the holder a new version drawn from a global counter, see {@link #getVersion()}.
+ * Caches derived from a holder can remember the version they were built from instead of comparing contents.
+ * Copies keep the version of the holder they were copied from since they hold the same labels.
+ * <p>
+ * The version is saved on the stack next to the labels, and holders are cached by it, see {@link #from(ItemStack)}.
+ * Copies of a stack carry the same version, so they share one holder instead of each being read again.
+ * Cached holders are shared, so callers that want to make changes take a copy first, see {@link #toOwned()}.
+ */
 @SuppressWarnings("UnusedReturnValue")
-public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
-    private final static WeakHashMap<ItemStack, LabelPositionHolder> CACHE = new WeakHashMap<>();
+public class LabelPositionHolder {
+    private static final String LABELS_KEY = "sfm:labels";
+    private static final String VERSION_KEY = "sfm:labels_version";
+    private static final int MAX_CACHE_SIZE = 256;
+    // Version => Holder, least recently used first
+    private static final Long2ObjectLinkedOpenHashMap<LabelPositionHolder> CACHE = new Long2ObjectLinkedOpenHashMap<>();
+    // versions are saved on disks, start somewhere random so they don't repeat those from before a restart
+    private static final AtomicLong NEXT_VERSION = new AtomicLong(new Random().nextLong());
+    private final Map<String, LongOpenHashSet> LABELS = new HashMap<>();
+    private long version = NEXT_VERSION.incrementAndGet();
+    // built when first needed and dropped on every change
+    private @Nullable Long2ObjectOpenHashMap<Set<String>> labelsByPosition = null;
 
     private LabelPositionHolder() {
-        this(new HashMap<>());
     }
 
     private LabelPositionHolder(LabelPositionHolder other) {
-        this();
-        other.labels().forEach((key, value) -> this.labels().put(key, new HashSet<>(value)));
+        other.LABELS.forEach((key, value) -> LABELS.put(key, value.clone()));
+        version = other.version;
     }
 
 
     /**
      * Get the label position holder for this disk.
      * <p>
-     * Saves it in the cache for faster future lookups.
+     * Holders are cached by the version saved on the stack, so copies of the stack share the same holder.
+     * The holder must not be modified, use {@link #toOwned()} and {@link #save(ItemStack)} to make changes.
      * <p>
-     * This mutably borrows the cache entry.
+     * Stacks saved before versions were stored are given one the first time they are read.
      */
     public static LabelPositionHolder from(ItemStack stack) {
-        return CACHE.computeIfAbsent(stack, s -> {
-            var tag = stack.getOrCreateTag().getCompound("sfm:labels");
-            return deserialize(tag);
-        });
+        var tag = stack.getOrCreateTag();
+        boolean hasVersion = tag.contains(VERSION_KEY, Tag.TAG_LONG);
+        if (hasVersion) {
+            long version = tag.getLong(VERSION_KEY);
+            synchronized (CACHE) {
+                LabelPositionHolder found = CACHE.getAndMoveToLast(version);
+                // a holder that was changed after being cached has moved on to a newer version
+                if (found != null && found.version == version) {
+                    return found;
+                }
+            }
+        }
+
+        LabelPositionHolder holder = deserialize(tag.getCompound(LABELS_KEY));
+        if (hasVersion) {
+            holder.version = tag.getLong(VERSION_KEY);
+        } else {
+            tag.putLong(VERSION_KEY, holder.version);
+        }
+        cache(holder);
+        return holder;
     }
 
     public static LabelPositionHolder empty() {
@@ -48,13 +95,22 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
     public static LabelPositionHolder deserialize(CompoundTag tag) {
         var labels = LabelPositionHolder.empty();
         for (var label : tag.getAllKeys()) {
+            // current: storing every BlockPos of a label as one long array
+            if (tag.getTagType(label) == Tag.TAG_LONG_ARRAY) {
+                LongOpenHashSet positions = labels.getPositionsMut(label);
+                for (long pos : tag.getLongArray(label)) {
+                    positions.add(pos);
+                }
+                continue;
+            }
+
             // old: storing BlockPos as long
             labels.addAll(label, tag.getList(label, Tag.TAG_LONG).stream()
                     .map(LongTag.class::cast)
                     .mapToLong(LongTag::getAsLong)
                     .mapToObj(BlockPos::of).collect(Collectors.toList()));
 
-            // new: storing BlockPos as compound
+            // old: storing BlockPos as compound, these disks are migrated the next time they are saved
             labels.addAll(label, tag.getList(label, Tag.TAG_COMPOUND).stream()
                     .map(CompoundTag.class::cast)
                     .map(NbtUtils::readBlockPos)
@@ -63,39 +119,73 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
         return labels;
     }
 
+    /**
+     * Write the labels and their version to the stack.
+     * <p>
+     * The holder itself is cached for the stack, so it should not be changed afterwards.
+     * A change would give it a new version, which no longer matches the stack, so it can't be served stale.
+     */
     public LabelPositionHolder save(ItemStack stack) {
-        stack.getOrCreateTag().put("sfm:labels", serialize());
-        CACHE.put(stack, new LabelPositionHolder(this));
+        var tag = stack.getOrCreateTag();
+        tag.put(LABELS_KEY, serialize());
+        tag.putLong(VERSION_KEY, version);
+        cache(this);
         return this;
     }
 
     public static void purge(ItemStack stack) {
-        stack.getOrCreateTag().remove("sfm:labels");
-        CACHE.remove(stack);
+        var tag = stack.getOrCreateTag();
+        tag.remove(LABELS_KEY);
+        tag.remove(VERSION_KEY);
+    }
+
+    private static void cache(LabelPositionHolder holder) {
+        synchronized (CACHE) {
+            CACHE.putAndMoveToLast(holder.version, holder);
+            while (CACHE.size() > MAX_CACHE_SIZE) {
+                CACHE.removeFirst();
+            }
+        }
     }
 
+    /**
+     * Each label is written as a single sorted {@link LongArrayTag} of packed positions,
+     * which is a fraction of the size of a compound tag per position.
+     */
     public CompoundTag serialize() {
         var tag = new CompoundTag();
-        for (var entry : labels().entrySet()) {
-            var list = new ListTag();
-            list.addAll(entry.getValue()
-                                .stream()
-                                .map(NbtUtils::writeBlockPos)
-                                .toList());
-            tag.put(entry.getKey(), list);
+        for (var entry : LABELS.entrySet()) {
+            long[] positions = entry.getValue().toLongArray();
+            // sorted so that the same labels always produce the same tag
+            Arrays.sort(positions);
+            tag.putLongArray(entry.getKey(), positions);
         }
         return tag;
     }
 
+    /**
+     * Changes whenever the labels change, equal versions mean equal labels.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * The labels and their packed positions, which must not be modified.
+     */
+    public Map<String, LongSet> labels() {
+        return Collections.unmodifiableMap(LABELS);
+    }
+
     public boolean contains(
             String label,
             BlockPos pos
     ) {
-        HashSet<BlockPos> positionsForLabel = this.labels().get(label);
+        LongOpenHashSet positionsForLabel = LABELS.get(label);
         if (positionsForLabel == null) {
             return false;
         } else {
-            return positionsForLabel.contains(pos);
+            return positionsForLabel.contains(pos.asLong());
         }
     }
 
@@ -111,19 +201,29 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
         return this;
     }
 
-    public Set<BlockPos> getPositions(String label) {
-        return labels().getOrDefault(label, new HashSet<>());
+    /**
+     * @return the packed positions of the label, which must not be modified
+     */
+    public LongSet getPositions(String label) {
+        LongOpenHashSet positions = LABELS.get(label);
+        return positions == null ? LongSets.EMPTY_SET : positions;
     }
 
-    public Set<BlockPos> getPositionsMut(String label) {
-        return labels().computeIfAbsent(label, s -> new HashSet<>());
+    private LongOpenHashSet getPositionsMut(String label) {
+        return LABELS.computeIfAbsent(label, s -> {
+            changed();
+            return new LongOpenHashSet();
+        });
     }
 
     public LabelPositionHolder addAll(
             String label,
             Collection<BlockPos> positions
     ) {
-        getPositionsMut(label).addAll(positions);
+        LongOpenHashSet positionsForLabel = getPositionsMut(label);
+        for (BlockPos pos : positions) {
+            if (positionsForLabel.add(pos.asLong())) changed();
+        }
         return this;
     }
 
@@ -134,11 +234,11 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
 
     public List<Component> asHoverText() {
         var rtn = new ArrayList<Component>();
-        if (labels().isEmpty()) return rtn;
+        if (LABELS.isEmpty()) return rtn;
         rtn.add(LocalizationKeys.DISK_ITEM_TOOLTIP_LABEL_HEADER
                         .getComponent()
                         .withStyle(ChatFormatting.UNDERLINE));
-        for (var entry : labels().entrySet()) {
+        for (var entry : LABELS.entrySet()) {
             rtn.add(LocalizationKeys.DISK_ITEM_TOOLTIP_LABEL.getComponent(
                     entry.getKey(),
                     entry.getValue().size()
@@ -148,17 +248,24 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
     }
 
     public LabelPositionHolder removeAll(BlockPos value) {
-        labels().values().forEach(list -> list.remove(value));
+        Set<String> labels = getLabels(value);
+        if (labels.isEmpty()) return this;
+        long packed = value.asLong();
+        for (String label : labels) {
+            LABELS.get(label).remove(packed);
+        }
+        changed();
         return this;
     }
 
     public LabelPositionHolder prune() {
-        labels().entrySet().removeIf(entry -> entry.getValue().isEmpty());
+        if (LABELS.entrySet().removeIf(entry -> entry.getValue().isEmpty())) changed();
         return this;
     }
 
     public LabelPositionHolder clear() {
-        labels().clear();
+        LABELS.clear();
+        changed();
         return this;
     }
 
@@ -166,7 +273,7 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
             String label,
             BlockPos position
     ) {
-        getPositionsMut(label).add(position);
+        if (getPositionsMut(label).add(position.asLong())) changed();
         return this;
     }
 
@@ -174,29 +281,52 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
             String label,
             BlockPos pos
     ) {
-        getPositionsMut(label).remove(pos);
+        if (getPositionsMut(label).remove(pos.asLong())) changed();
         return this;
     }
 
     public LabelPositionHolder removeIf(BiPredicate<String, BlockPos> predicate) {
-        labels().forEach((key, value) -> value.removeIf(pos -> predicate.test(key, pos)));
+        LABELS.forEach((key, value) -> {
+            for (LongIterator it = value.iterator(); it.hasNext(); ) {
+                if (predicate.test(key, BlockPos.of(it.nextLong()))) {
+                    it.remove();
+                    changed();
+                }
+            }
+        });
         return this;
     }
 
     public LabelPositionHolder removeIf(Predicate<String> predicate) {
-        labels().keySet().removeIf(predicate);
+        if (LABELS.keySet().removeIf(predicate)) changed();
         return this;
     }
 
     public LabelPositionHolder forEach(BiConsumer<String, BlockPos> consumer) {
-        labels().forEach((key, value) -> value.forEach(pos -> consumer.accept(key, pos)));
+        LABELS.forEach((key, value) -> {
+            for (LongIterator it = value.iterator(); it.hasNext(); ) {
+                consumer.accept(key, BlockPos.of(it.nextLong()));
+            }
+        });
         return this;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof LabelPositionHolder that)) return false;
+        return LABELS.equals(that.LABELS);
+    }
+
+    @Override
+    public int hashCode() {
+        return LABELS.hashCode();
+    }
+
     @Override
     public String toString() {
-        return "LabelPositionHolder{size=" + labels().values().stream().mapToInt(Set::size).sum() + "; " +
-               labels()
+        return "LabelPositionHolder{size=" + LABELS.values().stream().mapToInt(Set::size).sum() + "; " +
+               LABELS
                        .entrySet()
                        .stream()
                        .map(entry -> entry.getKey() + "=" + entry.getValue().size())
@@ -208,14 +338,29 @@ public record LabelPositionHolder(Map<String, HashSet<BlockPos>> labels) {
         return new LabelPositionHolder(this);
     }
 
+    /**
+     * Uses a reverse index from positions to labels, built on first use after a change.
+     *
+     * @return the labels assigned to the position, which must not be modified
+     */
     public Set<String> getLabels(BlockPos pos) {
-        return labels().entrySet().stream()
-                .filter(entry -> entry.getValue().contains(pos))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
+        if (labelsByPosition == null) {
+            labelsByPosition = new Long2ObjectOpenHashMap<>();
+            for (var entry : LABELS.entrySet()) {
+                for (LongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+                    labelsByPosition.computeIfAbsent(it.nextLong(), k -> new ObjectArraySet<>()).add(entry.getKey());
+                }
+            }
+        }
+        return labelsByPosition.getOrDefault(pos.asLong(), Collections.emptySet());
     }
 
     public boolean isEmpty() {
-        return labels().isEmpty();
+        return LABELS.isEmpty();
+    }
+
+    private void changed() {
+        version = NEXT_VERSION.incrementAndGet();
+        labelsByPosition = null;
     }
 }
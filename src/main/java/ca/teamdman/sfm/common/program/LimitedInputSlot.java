@@ -32,10 +32,9 @@ public class LimitedInputSlot<STACK, ITEM, CAP> {
             int slot,
             CAP handler,
             IInputResourceTracker tracker,
-            STACK stackCache,
             ResourceType<STACK, ITEM, CAP> type
     ) {
-        this.init(handler, label, pos, direction, slot, tracker, stackCache, type);
+        this.init(handler, label, pos, direction, slot, tracker, type);
     }
 
     @SuppressWarnings("RedundantIfStatement")
@@ -69,11 +68,21 @@ public class LimitedInputSlot<STACK, ITEM, CAP> {
         return type.extract(handler, slot, amount, false);
     }
 
+    /**
+     * Forget the cached extraction simulation, used when a suspended trigger resumes on a later tick.
+     */
+    public void invalidateExtractSimulateCache() {
+        extractSimulateCache = null;
+    }
+
     /**
      * Checks how much could possibly be extracted from this slot.
      * We need to simulate since there are some types of slots we can't undo an extract from.
      * You can't put something back in the output slot of a furnace.
      * This value is cached for performance.
+     * <p>
+     * The cache always starts out empty, it is never seeded from an earlier read of the slot
+     * since the filters must be checked against what will actually be extracted.
      */
     public STACK peekExtractPotential() {
         if (extractSimulateCache == null) {
@@ -90,11 +99,10 @@ public class LimitedInputSlot<STACK, ITEM, CAP> {
             Direction direction,
             int slot,
             IInputResourceTracker tracker,
-            STACK stackCache,
             ResourceType<STACK, ITEM, CAP> type
     ) {
         this.done = false;
-        this.extractSimulateCache = stackCache;
+        this.extractSimulateCache = null;
         this.handler = handler;
         this.tracker = tracker;
         this.slot = slot;
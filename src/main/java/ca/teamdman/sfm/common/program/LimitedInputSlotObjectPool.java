@@ -3,46 +3,55 @@ package ca.teamdman.sfm.common.program;
 import ca.teamdman.sfm.SFM;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfml.ast.Label;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.IdentityHashMap;
 
 /**
  * A pool of {@link LimitedInputSlot} objects to avoid the garbage collector
+ * <p>
+ * Each {@link ProgramContext} owns its own pool, so pools are never shared between threads.
+ * Tracking leased slots to find leaks is only done when enabled, see {@link #checkInvariant()}.
  */
 public class LimitedInputSlotObjectPool {
-    public static final IdentityHashMap<LimitedInputSlot<?, ?, ?>, Boolean> LEASED = new IdentityHashMap<>();
+    private final @Nullable ReferenceOpenHashSet<LimitedInputSlot<?, ?, ?>> LEASED;
     @SuppressWarnings("rawtypes")
-    private static LimitedInputSlot[] pool = new LimitedInputSlot[27];
-    private static int index = -1;
+    private LimitedInputSlot[] pool = new LimitedInputSlot[27];
+    private int index = -1;
+    private int leased = 0;
+
+    public LimitedInputSlotObjectPool(boolean trackLeaks) {
+        this.LEASED = trackLeaks ? new ReferenceOpenHashSet<>() : null;
+    }
 
     /**
      * Acquire a {@link LimitedInputSlot} from the pool, or creates a new one if none available
      */
-    public static <STACK, ITEM, CAP> LimitedInputSlot<STACK, ITEM, CAP> acquire(
+    public <STACK, ITEM, CAP> LimitedInputSlot<STACK, ITEM, CAP> acquire(
             Label label,
             BlockPos pos,
             Direction direction,
             int slot,
             CAP handler,
             IInputResourceTracker tracker,
-            STACK stack,
             ResourceType<STACK, ITEM, CAP> type
     ) {
+        leased++;
         if (index == -1) {
-            var rtn = new LimitedInputSlot<>(label, pos, direction, slot, handler, tracker, stack, type);
-            if (LEASED.put(rtn, true) != null) {
+            var rtn = new LimitedInputSlot<>(label, pos, direction, slot, handler, tracker, type);
+            if (LEASED != null && !LEASED.add(rtn)) {
                 SFM.LOGGER.warn("new input slot was somehow already leased, this should literally never happen: {}", rtn);
             }
             return rtn;
         } else {
             @SuppressWarnings("unchecked") LimitedInputSlot<STACK, ITEM, CAP> obj = pool[index];
             index--;
-            obj.init(handler, label, pos, direction, slot, tracker, stack, type);
-            if (LEASED.put(obj, true) != null) {
+            obj.init(handler, label, pos, direction, slot, tracker, type);
+            if (LEASED != null && !LEASED.add(obj)) {
                 SFM.LOGGER.warn("tried to lease input slot a second time: {}", obj);
             }
             return obj;
@@ -52,13 +61,14 @@ public class LimitedInputSlotObjectPool {
     /**
      * Release a {@link LimitedInputSlot} back into the pool for it to be reused instead of garbage collected
      */
-    public static void release(LimitedInputSlot<?, ?, ?> slot) {
+    public void release(LimitedInputSlot<?, ?, ?> slot) {
         if (slot.freed) {
             SFM.LOGGER.warn("Release called on already freed input slot {}", slot);
             return;
         }
         slot.freed = true;
-        if (LEASED.remove(slot) == null) {
+        leased--;
+        if (LEASED != null && !LEASED.remove(slot)) {
             SFM.LOGGER.warn("Freed an input slot that wasn't tracked as leased: {}", slot);
         }
         if (index == pool.length - 1) {
@@ -74,7 +84,7 @@ public class LimitedInputSlotObjectPool {
      * After acquiring slots, the end the index after release should be {@code check + slots.size()}
      */
     @SuppressWarnings("rawtypes")
-    public static void release(Collection<LimitedInputSlot<?, ?, ?>> slots) {
+    public void release(Collection<LimitedInputSlot<?, ?, ?>> slots) {
         // handle resizing
         if (index + slots.size() >= pool.length) {
             int slotsFree = pool.length - index - 1;
@@ -88,18 +98,36 @@ public class LimitedInputSlotObjectPool {
                 continue;
             }
             slot.freed = true;
+            leased--;
             index++;
             pool[index] = slot;
-            if (LEASED.remove(slot) == null) {
+            if (LEASED != null && !LEASED.remove(slot)) {
                 SFM.LOGGER.warn("Freed in batch an object that wasn't tracked as leased: {}", slot);
             }
         }
     }
 
-    public static void checkInvariant() {
-        if (!LEASED.isEmpty()) {
+    /**
+     * Warn about slots that were never released, does nothing unless leak tracking is enabled.
+     */
+    public void checkInvariant() {
+        if (LEASED != null && !LEASED.isEmpty()) {
             SFM.LOGGER.warn("Leased objects not released: {}", LEASED);
             LEASED.clear();
         }
     }
+
+    /**
+     * @return how many slots are waiting to be reused
+     */
+    public int available() {
+        return index + 1;
+    }
+
+    /**
+     * @return how many slots have been acquired and not released yet
+     */
+    public int leased() {
+        return leased;
+    }
 }
@@ -0,0 +1,86 @@
+package ca.teamdman.sfm.common.program;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * The slots gathered by an {@link ca.teamdman.sfml.ast.InputStatement}, kept in gather order.
+ * <p>
+ * Output statements walk the table by index, so running an output no longer copies every input slot into a new collection.
+ * <p>
+ * Unlike {@link LimitedOutputSlotTable}, the entries stay {@link LimitedInputSlot} objects.
+ * Each input slot carries its own extraction cache, done flag and tracker, which must survive between the outputs of a trigger
+ * and across a suspended trigger, and {@link ca.teamdman.sfml.ast.ForgetStatement} picks slots out by their label.
+ */
+@SuppressWarnings("rawtypes")
+public class LimitedInputSlotTable {
+    private LimitedInputSlot[] slots = new LimitedInputSlot[27];
+    private int size = 0;
+
+    public void add(LimitedInputSlot<?, ?, ?> slot) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        slots[size++] = slot;
+    }
+
+    /**
+     * Move every slot of the other table to the end of this one, leaving the other table empty.
+     */
+    public void takeAll(LimitedInputSlotTable other) {
+        if (size + other.size > slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(size + other.size, size * 2));
+        }
+        System.arraycopy(other.slots, 0, slots, size, other.size);
+        size += other.size;
+        other.truncate(0);
+    }
+
+    public LimitedInputSlot<?, ?, ?> get(int index) {
+        return slots[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Release the slots matching the condition back into the pool, keeping the others in order.
+     */
+    @SuppressWarnings("unchecked")
+    public void releaseIf(
+            LimitedInputSlotObjectPool pool,
+            Predicate<LimitedInputSlot<?, ?, ?>> condition
+    ) {
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            LimitedInputSlot slot = slots[read];
+            if (condition.test(slot)) {
+                pool.release(slot);
+                continue;
+            }
+            slots[write++] = slot;
+        }
+        truncate(write);
+    }
+
+    /**
+     * Release every slot back into the pool and empty the table.
+     */
+    public void release(LimitedInputSlotObjectPool pool) {
+        for (int i = 0; i < size; i++) {
+            pool.release(slots[i]);
+        }
+        truncate(0);
+    }
+
+    private void truncate(int newSize) {
+        // don't keep released slots reachable
+        Arrays.fill(slots, newSize, size, null);
+        size = newSize;
+    }
+}
@@ -72,6 +72,13 @@ public class LimitedOutputSlot<STACK, ITEM, CAP> {
         return type.insert(handler, slot, stack, simulate);
     }
 
+    /**
+     * Must be called after inserting into this slot without going through {@link #insert(Object, boolean)}
+     */
+    public void invalidateStackInSlotCache() {
+        stackInSlotCache = null;
+    }
+
     @SuppressWarnings("DuplicatedCode")
     public void init(
             CAP handler,
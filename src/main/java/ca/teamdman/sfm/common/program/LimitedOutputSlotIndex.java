@@ -0,0 +1,326 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import ca.teamdman.sfml.ast.OutputStatement;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Buckets output slots by what they are able to accept.
+ * <p>
+ * A partially filled slot can only accept more of what it already holds, so those are keyed by item identity.
+ * Each item seen is handed a resource key, and the buckets are looked up by that key.
+ * Empty slots can accept anything, so they share a single pool.
+ * Slots from handlers that can't be indexed, see {@link ResourceType#canIndexSlotsByContents(Object)},
+ * are tried against every input slot like before.
+ * <p>
+ * Each bucket is a {@link LimitedOutputSlotTable} sorted by the order the slots were gathered in.
+ * The buckets an input slot can use are walked together in that order,
+ * so output slots are filled in the same order as trying every slot would fill them.
+ * Neighbouring slots in a bucket that share a handler and a tracker are moved into together,
+ * see {@link OutputStatement#moveTo(ProgramContext, LimitedInputSlot, LimitedOutputSlot, LimitedOutputSlotTable, int, int)}.
+ * <p>
+ * Only the first {@link LimitedOutputSlot} of each group is kept, to stand for the handler and tracker of the group.
+ * The others are released back into the pool as soon as they are added, so the number of slot objects in use
+ * follows the number of handlers instead of the number of slots.
+ * <p>
+ * The index is kept by its {@link ProgramContext} and reused by every output statement, see {@link #release()}.
+ * Emptied buckets are kept for the next item instead of being thrown away.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class LimitedOutputSlotIndex {
+    private static final int PARTIAL = 0;
+    private static final int EMPTY = 1;
+    private static final int UNINDEXED = 2;
+    private static final int EMPTY_KEY = -1;
+    private final LimitedOutputSlotObjectPool POOL;
+    private final Object2IntOpenHashMap<Object> resourceKeysByItem = new Object2IntOpenHashMap<>();
+    // indexed by resource key, null when no partially filled slot holds that item
+    private final ArrayList<LimitedOutputSlotTable> partialSlotsByKey = new ArrayList<>();
+    private final ArrayList<LimitedOutputSlotTable> spareTables = new ArrayList<>();
+    private final LimitedOutputSlotTable emptySlots = new LimitedOutputSlotTable();
+    private final LimitedOutputSlotTable unindexedSlots = new LimitedOutputSlotTable();
+    // empty slots that received something during a move, added to the partial buckets once the move is over
+    private final LimitedOutputSlotTable filledSlots = new LimitedOutputSlotTable();
+    private final LimitedOutputSlotTable scratch = new LimitedOutputSlotTable();
+    // the buckets being walked by a move and how far along each one is
+    private final LimitedOutputSlotTable[] candidates = new LimitedOutputSlotTable[3];
+    private final int[] reads = new int[3];
+    private final int[] writes = new int[3];
+    private final int[] counts = new int[3];
+    // the slot standing for each group, indexed by group
+    private LimitedOutputSlot[] groupSlots = new LimitedOutputSlot[8];
+    private boolean groupIndexable = false;
+    private int size = 0;
+    private int order = 0;
+    // slots are gathered one handler at a time, so a new group starts whenever the handler or tracker changes
+    private int group = 0;
+
+    public LimitedOutputSlotIndex(LimitedOutputSlotObjectPool pool) {
+        this.POOL = pool;
+        resourceKeysByItem.defaultReturnValue(EMPTY_KEY);
+    }
+
+    /**
+     * Add a slot to the index, which takes ownership of the slot object.
+     */
+    public void add(LimitedOutputSlot slot) {
+        size++;
+        order++;
+        LimitedOutputSlot groupSlot = groupSlots[group];
+        boolean newGroup = groupSlot == null
+                           || slot.handler != groupSlot.handler
+                           || slot.tracker != groupSlot.tracker
+                           || slot.type != groupSlot.type;
+        if (newGroup) {
+            group++;
+            if (group == groupSlots.length) {
+                groupSlots = Arrays.copyOf(groupSlots, group * 2);
+            }
+            groupSlots[group] = slot;
+            groupIndexable = slot.type.canIndexSlotsByContents(slot.handler);
+        }
+
+        ResourceType type = slot.type;
+        Object stack = slot.getStackInSlot();
+        int resourceKey = getResourceKey(type, stack);
+        LimitedOutputSlotTable table;
+        if (!groupIndexable) {
+            table = unindexedSlots;
+        } else if (resourceKey == EMPTY_KEY) {
+            table = emptySlots;
+        } else {
+            table = getPartialSlots(resourceKey);
+        }
+        table.add(group, slot.slot, order, stack, type.getAmount(stack), resourceKey);
+
+        if (!newGroup) {
+            POOL.release(slot);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Move as much as possible from the input slot into the output slots that could accept it.
+     * <p>
+     * Partially filled slots of the same item, empty slots, and unindexed slots are tried in the order they were gathered.
+     */
+    public void moveFrom(
+            ProgramContext context,
+            LimitedInputSlot inputSlot
+    ) {
+        Object item = inputSlot.type.getItem(inputSlot.peekExtractPotential());
+        int resourceKey = resourceKeysByItem.getInt(item);
+        LimitedOutputSlotTable partialSlots = resourceKey == EMPTY_KEY ? null : partialSlotsByKey.get(resourceKey);
+        candidates[PARTIAL] = partialSlots;
+        candidates[EMPTY] = emptySlots;
+        candidates[UNINDEXED] = unindexedSlots;
+        for (int i = 0; i < candidates.length; i++) {
+            reads[i] = 0;
+            writes[i] = 0;
+            counts[i] = candidates[i] == null ? 0 : candidates[i].size();
+        }
+
+        while (!inputSlot.isDone()) {
+            // find the bucket holding the slot that was gathered first
+            int bucket = -1;
+            int nextOrder = Integer.MAX_VALUE;
+            for (int i = 0; i < candidates.length; i++) {
+                if (reads[i] < counts[i] && candidates[i].getOrder(reads[i]) < nextOrder) {
+                    bucket = i;
+                    nextOrder = candidates[i].getOrder(reads[i]);
+                }
+            }
+            if (bucket == -1) break;
+
+            // the run may not pass a slot waiting in another bucket
+            int limit = Integer.MAX_VALUE;
+            for (int i = 0; i < candidates.length; i++) {
+                if (i != bucket && reads[i] < counts[i]) {
+                    limit = Math.min(limit, candidates[i].getOrder(reads[i]));
+                }
+            }
+            moveRun(context, inputSlot, bucket, limit);
+        }
+
+        // Keep the slots we didn't get to
+        for (int i = 0; i < candidates.length; i++) {
+            LimitedOutputSlotTable table = candidates[i];
+            if (table == null) continue;
+            while (reads[i] < counts[i]) {
+                table.move(reads[i]++, writes[i]++);
+            }
+            table.truncate(writes[i]);
+            candidates[i] = null;
+        }
+        if (partialSlots != null && partialSlots.isEmpty()) {
+            partialSlotsByKey.set(resourceKey, null);
+            spareTables.add(partialSlots);
+        }
+
+        // An empty slot that received something can only accept more of the same from now on.
+        // The slots are appended to their buckets and each bucket is merged back into order once.
+        for (int i = 0; i < filledSlots.size(); i++) {
+            getPartialSlots(filledSlots.getResourceKey(i)).addUnsorted(filledSlots, i);
+        }
+        for (int i = 0; i < filledSlots.size(); i++) {
+            LimitedOutputSlotTable table = partialSlotsByKey.get(filledSlots.getResourceKey(i));
+            if (table.needsSort()) {
+                table.sort(scratch);
+            }
+        }
+        filledSlots.truncate(0);
+    }
+
+    /**
+     * Release all remaining slots back into the pool, leaving the index empty and ready to be used again.
+     */
+    public void release() {
+        for (LimitedOutputSlotTable partialSlots : partialSlotsByKey) {
+            if (partialSlots == null) continue;
+            partialSlots.truncate(0);
+            spareTables.add(partialSlots);
+        }
+        partialSlotsByKey.clear();
+        resourceKeysByItem.clear();
+        emptySlots.truncate(0);
+        unindexedSlots.truncate(0);
+        for (int i = 1; i <= group; i++) {
+            POOL.release(groupSlots[i]);
+            groupSlots[i] = null;
+        }
+        size = 0;
+        order = 0;
+        group = 0;
+    }
+
+    /**
+     * @return the key for the item held by the stack, or {@link #EMPTY_KEY} if it is empty
+     */
+    private int getResourceKey(
+            ResourceType type,
+            Object stack
+    ) {
+        if (type.isEmpty(stack)) return EMPTY_KEY;
+        Object item = type.getItem(stack);
+        int resourceKey = resourceKeysByItem.getInt(item);
+        if (resourceKey == EMPTY_KEY) {
+            resourceKey = resourceKeysByItem.size();
+            resourceKeysByItem.put(item, resourceKey);
+            partialSlotsByKey.add(null);
+        }
+        return resourceKey;
+    }
+
+    private LimitedOutputSlotTable getPartialSlots(int resourceKey) {
+        LimitedOutputSlotTable partialSlots = partialSlotsByKey.get(resourceKey);
+        if (partialSlots == null) {
+            partialSlots = spareTables.isEmpty()
+                           ? new LimitedOutputSlotTable()
+                           : spareTables.remove(spareTables.size() - 1);
+            partialSlotsByKey.set(resourceKey, partialSlots);
+        }
+        return partialSlots;
+    }
+
+    /**
+     * Read the slot again if an insert made its cached stack stale.
+     */
+    private void refreshStack(
+            LimitedOutputSlotTable table,
+            int index
+    ) {
+        if (table.getStack(index) != null) return;
+        LimitedOutputSlot groupSlot = groupSlots[table.getGroup(index)];
+        Object stack = groupSlot.type.getStackInSlot(groupSlot.handler, table.getSlot(index));
+        table.setStack(index, stack, groupSlot.type.getAmount(stack), getResourceKey(groupSlot.type, stack));
+    }
+
+    /**
+     * Whether the slot can't accept anything more, see {@link LimitedOutputSlot#isDone()}.
+     */
+    @SuppressWarnings("RedundantIfStatement")
+    private boolean isDone(
+            LimitedOutputSlotTable table,
+            int index
+    ) {
+        LimitedOutputSlot groupSlot = groupSlots[table.getGroup(index)];
+        ResourceType type = groupSlot.type;
+        int slot = table.getSlot(index);
+        if (slot > type.getSlots(groupSlot.handler) - 1) {
+            // composter block changes how many slots it has between insertions
+            return true;
+        }
+        refreshStack(table, index);
+        Object stack = table.getStack(index);
+        long count = table.getCount(index);
+        if (count >= type.getMaxStackSizeForSlot(groupSlot.handler, slot)) {
+            return true;
+        }
+        if (count != 0 && !groupSlot.tracker.matchesStack(stack)) {
+            return true;
+        }
+        if (groupSlot.tracker.isDone(type, stack)) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Move into the next run of slots in a bucket, compacting the bucket in place as slots are dropped or filled.
+     */
+    private void moveRun(
+            ProgramContext context,
+            LimitedInputSlot inputSlot,
+            int bucket,
+            int limit
+    ) {
+        LimitedOutputSlotTable table = candidates[bucket];
+        int count = counts[bucket];
+        int read = reads[bucket];
+        int write = writes[bucket];
+
+        // Gather the following slots that can be inserted into together, they end up next to each other
+        int runGroup = table.getGroup(read);
+        int runStart = write;
+        while (read < count && table.getGroup(read) == runGroup && table.getOrder(read) < limit) {
+            if (isDone(table, read)) {
+                // Make sure we don't process this slot again
+                size--;
+                read++;
+                continue;
+            }
+            table.move(read++, write++);
+        }
+        int runEnd = write;
+
+        // Attempt a move
+        if (runStart < runEnd) {
+            OutputStatement.moveTo(context, inputSlot, groupSlots[runGroup], table, runStart, runEnd);
+        }
+
+        if (bucket == EMPTY) {
+            write = runStart;
+            for (int i = runStart; i < runEnd; i++) {
+                refreshStack(table, i);
+                if (table.getResourceKey(i) != EMPTY_KEY) {
+                    filledSlots.add(table, i);
+                    continue;
+                }
+                table.move(i, write++);
+            }
+        }
+
+        reads[bucket] = read;
+        writes[bucket] = write;
+    }
+}
@@ -0,0 +1,232 @@
+package ca.teamdman.sfm.common.program;
+
+import java.util.Arrays;
+
+/**
+ * A list of output slots stored as parallel arrays, one entry per slot.
+ * <p>
+ * Moving into output slots mostly asks which neighbouring slots can be inserted into together, which slot indices
+ * they have, and how full they are. Keeping those in primitive arrays answers that without visiting an object per slot.
+ * <p>
+ * Slots that share a handler, a tracker and a resource type are given the same group by {@link LimitedOutputSlotIndex},
+ * which keeps a single {@link LimitedOutputSlot} per group to stand for the handler.
+ * Each slot also remembers the order it was gathered in, entries are kept sorted by it.
+ * <p>
+ * The stack last read from each slot is cached along with its count and a resource key handed out by the index.
+ * A cleared stack means the slot must be read again, see {@link #invalidateStack(int)}.
+ * <p>
+ * The slot indices of neighbouring entries are contiguous, so a run of them can be handed to
+ * {@link ca.teamdman.sfm.common.resourcetype.ResourceType#insert(Object, int[], int, int, Object, boolean)} as is.
+ */
+public class LimitedOutputSlotTable {
+    private int[] groups = new int[27];
+    private int[] slotIndices = new int[27];
+    private int[] orders = new int[27];
+    private long[] counts = new long[27];
+    private int[] resourceKeys = new int[27];
+    private Object[] stacks = new Object[27];
+    private int size = 0;
+    // entries at or after this index were appended out of order, see #addUnsorted(LimitedOutputSlotTable, int)
+    private int unsortedFrom = -1;
+
+    /**
+     * Add a slot gathered after every slot already in the table.
+     */
+    public void add(
+            int group,
+            int slot,
+            int order,
+            Object stack,
+            long count,
+            int resourceKey
+    ) {
+        if (size == groups.length) {
+            grow(size * 2);
+        }
+        groups[size] = group;
+        slotIndices[size] = slot;
+        orders[size] = order;
+        counts[size] = count;
+        resourceKeys[size] = resourceKey;
+        stacks[size] = stack;
+        size++;
+    }
+
+    /**
+     * Add an entry of another table, gathered after every slot already in this table.
+     */
+    public void add(
+            LimitedOutputSlotTable other,
+            int index
+    ) {
+        add(
+                other.groups[index],
+                other.slotIndices[index],
+                other.orders[index],
+                other.stacks[index],
+                other.counts[index],
+                other.resourceKeys[index]
+        );
+    }
+
+    /**
+     * Append an entry of another table, which may have been gathered before entries already in this table.
+     * <p>
+     * The table is out of order until {@link #sort(LimitedOutputSlotTable)} is called.
+     * Appending a batch and then merging it in once keeps refiling many slots linear instead of shifting the table for each one.
+     */
+    public void addUnsorted(
+            LimitedOutputSlotTable other,
+            int index
+    ) {
+        if (unsortedFrom == -1) {
+            unsortedFrom = size;
+        }
+        add(other, index);
+    }
+
+    /**
+     * @return {@code true} if entries were appended since the table was last sorted
+     */
+    public boolean needsSort() {
+        return unsortedFrom != -1;
+    }
+
+    /**
+     * Merge the entries appended since the last sort back into gather order.
+     * <p>
+     * Both the old entries and the appended ones are already sorted, so this is a single merge from the back.
+     *
+     * @param scratch a table to hold the appended entries while merging, left empty afterwards
+     */
+    public void sort(LimitedOutputSlotTable scratch) {
+        int mid = unsortedFrom;
+        unsortedFrom = -1;
+        if (mid <= 0 || orders[mid - 1] < orders[mid]) return;
+
+        for (int i = mid; i < size; i++) {
+            scratch.add(this, i);
+        }
+        int read = mid - 1;
+        int appended = scratch.size - 1;
+        int write = size - 1;
+        while (appended >= 0) {
+            if (read >= 0 && orders[read] > scratch.orders[appended]) {
+                move(read--, write--);
+            } else {
+                copy(scratch, appended--, write--);
+            }
+        }
+        scratch.truncate(0);
+    }
+
+    public int getGroup(int index) {
+        return groups[index];
+    }
+
+    public int getSlot(int index) {
+        return slotIndices[index];
+    }
+
+    public int getOrder(int index) {
+        return orders[index];
+    }
+
+    /**
+     * @return the cached count of the slot, only meaningful while {@link #getStack(int)} is not null
+     */
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return the cached resource key of the slot, only meaningful while {@link #getStack(int)} is not null
+     */
+    public int getResourceKey(int index) {
+        return resourceKeys[index];
+    }
+
+    /**
+     * @return the stack last read from the slot, or {@code null} if it must be read again
+     */
+    public Object getStack(int index) {
+        return stacks[index];
+    }
+
+    public void setStack(
+            int index,
+            Object stack,
+            long count,
+            int resourceKey
+    ) {
+        stacks[index] = stack;
+        counts[index] = count;
+        resourceKeys[index] = resourceKey;
+    }
+
+    /**
+     * Must be called after inserting into the slot.
+     */
+    public void invalidateStack(int index) {
+        stacks[index] = null;
+    }
+
+    /**
+     * @return the backing array of slot indices, only the first {@link #size()} entries are in use
+     */
+    public int[] getSlotIndices() {
+        return slotIndices;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copy an entry to another index, used to compact the table in place.
+     */
+    public void move(
+            int from,
+            int to
+    ) {
+        copy(this, from, to);
+    }
+
+    /**
+     * Drop every entry at or after the given size.
+     */
+    public void truncate(int newSize) {
+        // don't keep stacks from earlier gathers reachable
+        Arrays.fill(stacks, newSize, size, null);
+        size = newSize;
+        if (unsortedFrom >= size) {
+            unsortedFrom = -1;
+        }
+    }
+
+    private void copy(
+            LimitedOutputSlotTable from,
+            int fromIndex,
+            int toIndex
+    ) {
+        groups[toIndex] = from.groups[fromIndex];
+        slotIndices[toIndex] = from.slotIndices[fromIndex];
+        orders[toIndex] = from.orders[fromIndex];
+        counts[toIndex] = from.counts[fromIndex];
+        resourceKeys[toIndex] = from.resourceKeys[fromIndex];
+        stacks[toIndex] = from.stacks[fromIndex];
+    }
+
+    private void grow(int capacity) {
+        groups = Arrays.copyOf(groups, capacity);
+        slotIndices = Arrays.copyOf(slotIndices, capacity);
+        orders = Arrays.copyOf(orders, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        resourceKeys = Arrays.copyOf(resourceKeys, capacity);
+        stacks = Arrays.copyOf(stacks, capacity);
+    }
+}
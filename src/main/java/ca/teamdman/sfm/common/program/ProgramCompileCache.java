@@ -0,0 +1,96 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.SFM;
+import ca.teamdman.sfm.common.SFMConfig;
+import ca.teamdman.sfml.SFMLParser;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Remembers the parse of recently compiled programs, keyed by a hash of the program text.
+ * <p>
+ * Most disks on a server are printing press copies of the same few programs,
+ * so loading a world would otherwise lex and parse the same text once per manager.
+ * <p>
+ * Only the parse tree is shared. It is never modified after parsing,
+ * while the AST holds per-manager state such as {@link ca.teamdman.sfml.ast.RoundRobin} counters and
+ * {@link ca.teamdman.sfml.ast.InputStatement} slot caches.
+ * Every compile builds a fresh AST from the shared tree, which is cheap compared to parsing.
+ * <p>
+ * The least recently used entry is evicted once the cache exceeds its configured size,
+ * and the cache is emptied when the server stops.
+ */
+@Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE, modid = SFM.MOD_ID)
+public class ProgramCompileCache {
+    private static final Long2ObjectLinkedOpenHashMap<ParseResult> CACHE = new Long2ObjectLinkedOpenHashMap<>();
+
+    /**
+     * Get the parse of the program text, parsing and remembering it if it isn't known.
+     */
+    public static ParseResult getOrParse(
+            String programString,
+            Function<String, ParseResult> parser
+    ) {
+        int maxSize = SFMConfig.getOrDefault(SFMConfig.COMMON.compiledProgramCacheSize);
+        if (maxSize <= 0) return parser.apply(programString);
+
+        long key = hash(programString);
+        synchronized (CACHE) {
+            ParseResult found = CACHE.getAndMoveToLast(key);
+            // the text is compared in case of hash collisions
+            if (found != null && found.programString().equals(programString)) {
+                return found;
+            }
+        }
+
+        // parse outside the lock so that other compiles aren't held up
+        ParseResult parsed = parser.apply(programString);
+        synchronized (CACHE) {
+            CACHE.putAndMoveToLast(key, parsed);
+            while (CACHE.size() > maxSize) {
+                CACHE.removeFirst();
+            }
+        }
+        return parsed;
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        clear();
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a, collisions are unlikely enough that comparing the text on a hit is all we need.
+     */
+    private static long hash(String programString) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < programString.length(); i++) {
+            hash ^= programString.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @param tree   the parse tree, not to be modified
+     * @param errors the lexer and parser errors, the tree should not be used if there are any
+     */
+    public record ParseResult(
+            String programString,
+            @Nullable SFMLParser.ProgramContext tree,
+            List<String> errors
+    ) {
+    }
+}
@@ -0,0 +1,97 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.SFM;
+import ca.teamdman.sfm.common.localization.LocalizationKeys;
+import ca.teamdman.sfm.common.registry.SFMResourceTypes;
+import ca.teamdman.sfml.ast.Program;
+import net.minecraft.network.chat.contents.TranslatableContents;
+import net.minecraft.server.MinecraftServer;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Compiles programs and gathers the warnings that don't need the world.
+ * <p>
+ * {@link #compileAsync} does the work on a background thread so that large programs don't stall the server tick,
+ * the result is handed back on the server thread where the world dependent warnings can be added.
+ * <p>
+ * Compiling builds resource ids and runs a simulated tick, so the static caches those reach
+ * ({@link RegexCache}, the resource id expansions, {@link SFMResourceTypes#fastLookup} and {@link ProgramCompileCache})
+ * must be safe to use from both threads.
+ */
+public class ProgramCompiler {
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SFM Program Compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Compile the program and gather the world independent warnings on the calling thread.
+     *
+     * @param labelPositionHolder must not be modified while compiling
+     */
+    public static Result compile(
+            String programString,
+            LabelPositionHolder labelPositionHolder
+    ) {
+        Result[] result = new Result[1];
+        Program.compile(
+                programString,
+                program -> result[0] = new Result(
+                        program,
+                        Collections.emptyList(),
+                        ProgramLinter.gatherWorldIndependentWarnings(program, labelPositionHolder)
+                ),
+                errors -> result[0] = new Result(null, errors, new ArrayList<>())
+        );
+        return result[0];
+    }
+
+    /**
+     * Compile the program on the compiler thread.
+     * <p>
+     * The callback is run on the server thread, it will not run if the server stops first.
+     *
+     * @param labelPositionHolder a copy that nothing else will modify, see {@link LabelPositionHolder#toOwned()}
+     */
+    public static void compileAsync(
+            MinecraftServer server,
+            String programString,
+            LabelPositionHolder labelPositionHolder,
+            Consumer<Result> callback
+    ) {
+        EXECUTOR.execute(() -> {
+            Result result;
+            try {
+                result = compile(programString, labelPositionHolder);
+            } catch (Throwable t) {
+                SFM.LOGGER.error("Encountered unhandled error while compiling program\n```\n{}\n```", programString, t);
+                result = new Result(
+                        null,
+                        List.of(LocalizationKeys.PROGRAM_ERROR_COMPILE_FAILED.get()),
+                        new ArrayList<>()
+                );
+            }
+            Result finalResult = result;
+            server.execute(() -> callback.accept(finalResult));
+        });
+    }
+
+    /**
+     * @param program  the compiled program, {@code null} if there were errors
+     * @param warnings mutable so that the world dependent warnings can be added
+     */
+    public record Result(
+            @Nullable Program program,
+            List<TranslatableContents> errors,
+            ArrayList<TranslatableContents> warnings
+    ) {
+    }
+}
@@ -1,12 +1,23 @@
 package ca.teamdman.sfm.common.program;
 
+import ca.teamdman.sfm.common.SFMConfig;
 import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.cablenetwork.CableNetwork;
 import ca.teamdman.sfm.common.cablenetwork.CableNetworkManager;
 import ca.teamdman.sfm.common.logging.TranslatableLogger;
+import ca.teamdman.sfml.ast.Block;
 import ca.teamdman.sfml.ast.InputStatement;
+import ca.teamdman.sfml.ast.Label;
+import ca.teamdman.sfml.ast.LabelAccess;
 import ca.teamdman.sfml.ast.Program;
+import ca.teamdman.sfml.ast.RoundRobin;
+import ca.teamdman.sfml.ast.Trigger;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.Level;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,10 +30,25 @@ public class ProgramContext {
     private final List<InputStatement> INPUTS = new ArrayList<>();
     private final Level LEVEL;
     private final ProgramBehaviour BEHAVIOUR;
-    private final int REDSTONE_PULSES;
+    private int redstone_pulses;
     private final LabelPositionHolder LABEL_POSITIONS;
+    private final long LABEL_POSITIONS_VERSION;
     private final TranslatableLogger LOGGER;
+    private final InventorySnapshot INVENTORY_SNAPSHOT;
+    private final Reference2ObjectOpenHashMap<Trigger, TriggerFingerprint> TRIGGER_FINGERPRINTS;
+    // Labels => Round robin behaviour => Positions
+    private final Object2ObjectOpenHashMap<List<Label>, LabelAccessPositions[]> LABEL_ACCESS_POSITIONS;
+    private final LimitedInputSlotObjectPool INPUT_SLOT_POOL;
+    private final LimitedOutputSlotObjectPool OUTPUT_SLOT_POOL;
+    private final LimitedOutputSlotIndex OUTPUT_SLOT_INDEX;
     private boolean did_something = false;
+    private boolean did_move = false;
+    // Resume state, see suspend(Block, int)
+    private final List<Block> RESUME_BLOCKS = new ArrayList<>();
+    private final IntArrayList RESUME_INDICES = new IntArrayList();
+    private @Nullable Trigger suspended_trigger = null;
+    private boolean suspending = false;
+    private long slice_deadline_nanos = Long.MAX_VALUE;
 
     public boolean didSomething() {
         return did_something;
@@ -32,6 +58,17 @@ public class ProgramContext {
         this.did_something = value;
     }
 
+    /**
+     * @return {@code true} if resources were moved since the last {@link #free()}
+     */
+    public boolean didMove() {
+        return did_move;
+    }
+
+    public void setDidMove(boolean value) {
+        this.did_move = value;
+    }
+
     private ProgramContext(
             Program program,
             ManagerBlockEntity manager,
@@ -46,10 +83,18 @@ public class ProgramContext {
         this.MANAGER = manager;
         this.NETWORK = network;
         this.LEVEL = level;
-        this.REDSTONE_PULSES = redstonePulses;
+        this.redstone_pulses = redstonePulses;
         this.BEHAVIOUR = executionBehaviour;
         this.LABEL_POSITIONS = labelPositions;
+        this.LABEL_POSITIONS_VERSION = labelPositions.getVersion();
         this.LOGGER = logger;
+        this.INVENTORY_SNAPSHOT = new InventorySnapshot();
+        this.TRIGGER_FINGERPRINTS = new Reference2ObjectOpenHashMap<>();
+        this.LABEL_ACCESS_POSITIONS = new Object2ObjectOpenHashMap<>();
+        boolean trackLeaks = SFMConfig.getOrDefault(SFMConfig.COMMON.trackSlotPoolLeaks);
+        this.INPUT_SLOT_POOL = new LimitedInputSlotObjectPool(trackLeaks);
+        this.OUTPUT_SLOT_POOL = new LimitedOutputSlotObjectPool(trackLeaks);
+        this.OUTPUT_SLOT_INDEX = new LimitedOutputSlotIndex(OUTPUT_SLOT_POOL);
     }
 
     public static ProgramContext createSimulationContext(Program program, LabelPositionHolder labelPositionHolder, int redstonePulses, SimulateExploreAllPathsProgramBehaviour behaviour) {
@@ -79,28 +124,67 @@ public class ProgramContext {
                 .get();
         assert MANAGER.getLevel() != null;
         LEVEL = MANAGER.getLevel();
-        REDSTONE_PULSES = MANAGER.getUnprocessedRedstonePulseCount();
+        redstone_pulses = MANAGER.getUnprocessedRedstonePulseCount();
         BEHAVIOUR = executionBehaviour;
         //noinspection OptionalGetWithoutIsPresent
         LABEL_POSITIONS = LabelPositionHolder.from(manager.getDisk().get());
+        LABEL_POSITIONS_VERSION = LABEL_POSITIONS.getVersion();
         LOGGER = manager.logger;
+        INVENTORY_SNAPSHOT = new InventorySnapshot();
+        TRIGGER_FINGERPRINTS = new Reference2ObjectOpenHashMap<>();
+        LABEL_ACCESS_POSITIONS = new Object2ObjectOpenHashMap<>();
+        boolean trackLeaks = SFMConfig.getOrDefault(SFMConfig.COMMON.trackSlotPoolLeaks);
+        INPUT_SLOT_POOL = new LimitedInputSlotObjectPool(trackLeaks);
+        OUTPUT_SLOT_POOL = new LimitedOutputSlotObjectPool(trackLeaks);
+        OUTPUT_SLOT_INDEX = new LimitedOutputSlotIndex(OUTPUT_SLOT_POOL);
     }
 
     public LabelPositionHolder getLabelPositionHolder() {
         return LABEL_POSITIONS;
     }
 
+    /**
+     * Get the positions of the label access, resolved once and reused afterwards.
+     * <p>
+     * The context is rebuilt when the labels change, see {@link #isValidFor(Program, ItemStack)}.
+     * <p>
+     * The positions only depend on the labels and the round robin behaviour, so that is what they are cached by.
+     * FORGET creates new label accesses every time it runs, caching by the label access itself would never hit.
+     */
+    public LabelAccessPositions getLabelAccessPositions(LabelAccess labelAccess) {
+        LabelAccessPositions[] byBehaviour = LABEL_ACCESS_POSITIONS.get(labelAccess.labels());
+        if (byBehaviour == null) {
+            byBehaviour = new LabelAccessPositions[RoundRobin.Behaviour.values().length];
+            LABEL_ACCESS_POSITIONS.put(labelAccess.labels(), byBehaviour);
+        }
+        int behaviour = labelAccess.roundRobin().getBehaviour().ordinal();
+        LabelAccessPositions rtn = byBehaviour[behaviour];
+        if (rtn == null) {
+            rtn = LabelAccessPositions.compile(labelAccess, LABEL_POSITIONS);
+            byBehaviour[behaviour] = rtn;
+        }
+        return rtn;
+    }
+
     private ProgramContext(ProgramContext other) {
         PROGRAM = other.PROGRAM;
         MANAGER = other.MANAGER;
         NETWORK = other.NETWORK;
         LEVEL = other.LEVEL;
-        REDSTONE_PULSES = other.REDSTONE_PULSES;
+        redstone_pulses = other.redstone_pulses;
         BEHAVIOUR = other.BEHAVIOUR.fork();
         INPUTS.addAll(other.INPUTS);
         did_something = other.did_something;
         LABEL_POSITIONS = other.LABEL_POSITIONS;
+        LABEL_POSITIONS_VERSION = other.LABEL_POSITIONS_VERSION;
         LOGGER = other.LOGGER;
+        INVENTORY_SNAPSHOT = other.INVENTORY_SNAPSHOT;
+        INPUT_SLOT_POOL = other.INPUT_SLOT_POOL;
+        OUTPUT_SLOT_POOL = other.OUTPUT_SLOT_POOL;
+        OUTPUT_SLOT_INDEX = other.OUTPUT_SLOT_INDEX;
+        TRIGGER_FINGERPRINTS = other.TRIGGER_FINGERPRINTS;
+        LABEL_ACCESS_POSITIONS = other.LABEL_ACCESS_POSITIONS;
+        did_move = other.did_move;
     }
 
     public ProgramBehaviour getBehaviour() {
@@ -122,16 +206,154 @@ public class ProgramContext {
     }
 
     public int getRedstonePulses() {
-        return REDSTONE_PULSES;
+        return redstone_pulses;
+    }
+
+    /**
+     * Whether this context can be reused to tick the given program.
+     * <p>
+     * The context must be rebuilt when the program, the labels on the disk, or the cable network change.
+     * Labels are compared by version, so saving the same labels to the disk again keeps the context.
+     */
+    public boolean isValidFor(
+            Program program,
+            ItemStack disk
+    ) {
+        return PROGRAM == program
+               && NETWORK.isValid()
+               && LABEL_POSITIONS_VERSION == LabelPositionHolder.from(disk).getVersion();
+    }
+
+    /**
+     * Prepare a long-lived context for the next tick of its manager.
+     * <p>
+     * The inputs of a suspended trigger are kept so that it can resume with the slots it already gathered.
+     */
+    public void reset() {
+        redstone_pulses = MANAGER.getUnprocessedRedstonePulseCount();
+        did_something = false;
+        INVENTORY_SNAPSHOT.clear();
+        if (suspended_trigger == null) {
+            did_move = false;
+            INPUTS.clear();
+        } else {
+            for (InputStatement input : INPUTS) {
+                input.invalidateSlotCaches();
+            }
+        }
     }
 
     /**
      * We free in reverse order because the {@link InputStatement#inputCheck} needs LIFO ordering for the math to work
+     * <p>
+     * The inputs, the inventory snapshot, the moved flag, and any suspended trigger are forgotten afterwards so the context can be reused.
      */
     public void free() {
         for (int i = INPUTS.size() - 1; i >= 0; i--) {
-            INPUTS.get(i).freeSlots();
+            INPUTS.get(i).freeSlots(this);
         }
+        INPUTS.clear();
+        INVENTORY_SNAPSHOT.clear();
+        did_move = false;
+        suspended_trigger = null;
+        suspending = false;
+        RESUME_BLOCKS.clear();
+        RESUME_INDICES.clear();
+        slice_deadline_nanos = Long.MAX_VALUE;
+    }
+
+    public LimitedInputSlotObjectPool getInputSlotPool() {
+        return INPUT_SLOT_POOL;
+    }
+
+    public LimitedOutputSlotObjectPool getOutputSlotPool() {
+        return OUTPUT_SLOT_POOL;
+    }
+
+    /**
+     * The index every output statement gathers its slots into.
+     * <p>
+     * Output statements never run inside each other, and each one releases the index before it finishes,
+     * so a single index is reused instead of building one for every output.
+     */
+    public LimitedOutputSlotIndex getOutputSlotIndex() {
+        return OUTPUT_SLOT_INDEX;
+    }
+
+    /**
+     * Warn about slots that were never released back into the pools of this context, when leak tracking is enabled.
+     * <p>
+     * A suspended trigger holds on to its slots between ticks, so nothing is checked while one is suspended.
+     */
+    public void checkSlotPoolInvariants() {
+        if (suspended_trigger != null) return;
+        INPUT_SLOT_POOL.checkInvariant();
+        OUTPUT_SLOT_POOL.checkInvariant();
+    }
+
+    /**
+     * Start the time slice of a trigger, statements will yield once it runs out.
+     *
+     * @param sliceNanos the length of the slice, or {@code 0} to never yield
+     */
+    public void beginTimeSlice(long sliceNanos) {
+        slice_deadline_nanos = sliceNanos <= 0 ? Long.MAX_VALUE : System.nanoTime() + sliceNanos;
+    }
+
+    /**
+     * @return {@code true} if the running trigger has used up its time slice
+     */
+    public boolean shouldYield() {
+        return slice_deadline_nanos != Long.MAX_VALUE && System.nanoTime() > slice_deadline_nanos;
+    }
+
+    /**
+     * Record where a block stopped so that it can continue from there.
+     * <p>
+     * Called by each block on the way out, innermost first, with the index of the statement to continue from.
+     * The trigger then becomes suspended, see {@link #finishSuspending(Trigger)}.
+     */
+    public void suspend(
+            Block block,
+            int statementIndex
+    ) {
+        suspending = true;
+        RESUME_BLOCKS.add(block);
+        RESUME_INDICES.add(statementIndex);
+    }
+
+    /**
+     * @return {@code true} while blocks are unwinding after one of them stopped early
+     */
+    public boolean isSuspending() {
+        return suspending;
+    }
+
+    public void finishSuspending(Trigger trigger) {
+        suspending = false;
+        suspended_trigger = trigger;
+    }
+
+    public @Nullable Trigger getSuspendedTrigger() {
+        return suspended_trigger;
+    }
+
+    /**
+     * Resume frames are consumed outermost first, the reverse of the order they were recorded in.
+     *
+     * @return {@code true} if the block is where the suspended trigger continues
+     */
+    public boolean isResumingInto(Block block) {
+        return !suspending && !RESUME_BLOCKS.isEmpty() && RESUME_BLOCKS.get(RESUME_BLOCKS.size() - 1) == block;
+    }
+
+    /**
+     * @return the index of the statement the block should continue from, {@code 0} if it isn't being resumed
+     */
+    public int takeResumeIndex(Block block) {
+        if (!isResumingInto(block)) return 0;
+        RESUME_BLOCKS.remove(RESUME_BLOCKS.size() - 1);
+        return RESUME_INDICES.removeInt(RESUME_INDICES.size() - 1);
     }
 
 
@@ -156,6 +378,22 @@ public class ProgramContext {
         return NETWORK;
     }
 
+    public InventorySnapshot getInventorySnapshot() {
+        return INVENTORY_SNAPSHOT;
+    }
+
+    /**
+     * Get the fingerprint used to skip the trigger, created on first use.
+     */
+    public TriggerFingerprint getTriggerFingerprint(Trigger trigger) {
+        TriggerFingerprint fingerprint = TRIGGER_FINGERPRINTS.get(trigger);
+        if (fingerprint == null) {
+            fingerprint = new TriggerFingerprint(trigger);
+            TRIGGER_FINGERPRINTS.put(trigger, fingerprint);
+        }
+        return fingerprint;
+    }
+
     @Override
     public String toString() {
         return "ProgramContext{" +
@@ -165,7 +403,7 @@ public class ProgramContext {
                ", INPUTS=" + INPUTS +
                ", LEVEL=" + LEVEL +
                ", EXECUTION_POLICY=" + BEHAVIOUR +
-               ", REDSTONE_PULSES=" + REDSTONE_PULSES +
+               ", REDSTONE_PULSES=" + redstone_pulses +
                ", LABEL_POSITIONS=" + LABEL_POSITIONS +
                ", did_something=" + did_something +
                '}';
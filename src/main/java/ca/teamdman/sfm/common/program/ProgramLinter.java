@@ -21,22 +21,33 @@ import static ca.teamdman.sfml.ast.RoundRobin.Behaviour.BY_BLOCK;
 import static ca.teamdman.sfml.ast.RoundRobin.Behaviour.BY_LABEL;
 
 public class ProgramLinter {
-    @SuppressWarnings("ConstantValue")
     public static ArrayList<TranslatableContents> gatherWarnings(
             Program program,
             LabelPositionHolder labelPositionHolder,
             @Nullable ManagerBlockEntity manager
+    ) {
+        var warnings = gatherWorldIndependentWarnings(program, labelPositionHolder);
+        if (manager != null && manager.getLevel() != null) {
+            addWorldWarnings(program, labelPositionHolder, manager, warnings);
+        }
+        return warnings;
+    }
+
+    /**
+     * Gather the warnings that only depend on the program and the labels.
+     * <p>
+     * Safe to call off the server thread, see {@link ProgramCompiler}.
+     */
+    public static ArrayList<TranslatableContents> gatherWorldIndependentWarnings(
+            Program program,
+            LabelPositionHolder labelPositionHolder
     ) {
         var warnings = new ArrayList<TranslatableContents>();
-        var level = manager != null ? manager.getLevel() : null;
 
         // label smells
         int before = warnings.size();
         addWarningsForLabelsInProgramButNotInHolder(program, labelPositionHolder, warnings);
         addWarningsForLabelsInHolderButNotInProgram(program, labelPositionHolder, warnings);
-        if (level != null) {
-            addWarningsForLabelsUsedInWorldButNotConnectedByCables(manager, labelPositionHolder, warnings, level);
-        }
         int after = warnings.size();
         if (before != after) {
             // add reminder to push labels
@@ -56,33 +67,57 @@ public class ProgramLinter {
                 .forEach(statement -> {
                     addWarningsForSmellyRoundRobinUsage(warnings, statement);
                     addWarningsForUsingEachWithoutAPattern(warnings, statement);
-                    {
-                        DirectionQualifier directions = statement.labelAccess().directions();
-                        if (directions.equals(DirectionQualifier.NULL_DIRECTION)) {
-                            // add warning if interacting with mekanism without specifying a side
-                            // are any of the blocks mekanism?
-                            statement
-                                    .labelAccess()
-                                    .getLabelledPositions(labelPositionHolder)
-                                    .stream()
-                                    .filter(pair -> SFMUtils.isMekanismBlock(level, pair.getSecond()))
-                                    .forEach(pair -> {
-                                        warnings.add(PROGRAM_WARNING_MEKANISM_USED_WITHOUT_DIRECTION.get(pair.getFirst(), statement.toStringPretty()));
-                                    });
-                        }
-                    }
-
                 });
 
         return warnings;
     }
 
+    /**
+     * Add the warnings that need to look at the world around the manager.
+     * <p>
+     * Must be called on the server thread.
+     */
+    public static void addWorldWarnings(
+            Program program,
+            LabelPositionHolder labelPositionHolder,
+            ManagerBlockEntity manager,
+            ArrayList<TranslatableContents> warnings
+    ) {
+        Level level = manager.getLevel();
+        if (level == null) return;
+
+        // label smells
+        int before = warnings.size();
+        addWarningsForLabelsUsedInWorldButNotConnectedByCables(manager, labelPositionHolder, warnings, level);
+        int after = warnings.size();
+        if (before != after && !warnings.contains(PROGRAM_REMINDER_PUSH_LABELS.get())) {
+            // add reminder to push labels
+            warnings.add(PROGRAM_REMINDER_PUSH_LABELS.get());
+        }
+
+        // add warning if interacting with mekanism without specifying a side
+        program
+                .getDescendantStatements()
+                .filter(IOStatement.class::isInstance)
+                .map(IOStatement.class::cast)
+                .filter(statement -> statement.labelAccess().directions().equals(DirectionQualifier.NULL_DIRECTION))
+                .forEach(statement -> statement
+                        .labelAccess()
+                        .getLabelledPositions(labelPositionHolder)
+                        .stream()
+                        .filter(pair -> SFMUtils.isMekanismBlock(level, pair.getSecond()))
+                        .forEach(pair -> warnings.add(PROGRAM_WARNING_MEKANISM_USED_WITHOUT_DIRECTION.get(
+                                pair.getFirst(),
+                                statement.toStringPretty()
+                        ))));
+    }
+
     public static void fixWarningsByRemovingBadLabelsFromDisk(
             ManagerBlockEntity manager,
             ItemStack disk,
             Program program
     ) {
-        var labels = LabelPositionHolder.from(disk);
+        var labels = LabelPositionHolder.from(disk).toOwned();
         // remove labels not defined in code
         labels.removeIf(label -> !program.referencedLabels().contains(label));
 
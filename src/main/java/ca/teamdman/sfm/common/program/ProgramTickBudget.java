@@ -0,0 +1,90 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.SFM;
+import ca.teamdman.sfm.common.SFMConfig;
+import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
+import ca.teamdman.sfml.ast.TimerTrigger;
+import ca.teamdman.sfml.ast.Trigger;
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Limits how much time all the managers on the server may spend running triggers in a single server tick.
+ * <p>
+ * Every trigger that runs draws from the budget, see {@link #track(long)}.
+ * Once the budget is spent, timer triggers that are due are deferred instead of run, see {@link #shouldDefer(Trigger)}.
+ * Only the triggers that don't fit are deferred, the other triggers of the same manager still run while there is time left.
+ * <p>
+ * Managers with deferred triggers wait in a queue.
+ * At the start of the next server tick the queue is drained in order before any manager ticks,
+ * and managers that still couldn't run go to the back of the queue so that nobody is starved.
+ * <p>
+ * Redstone triggers are never deferred since their pulses are consumed by the tick that sees them.
+ */
+@Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE, modid = SFM.MOD_ID)
+public class ProgramTickBudget {
+    private static final ReferenceLinkedOpenHashSet<ManagerBlockEntity> DEFERRED_MANAGERS = new ReferenceLinkedOpenHashSet<>();
+    private static long budgetNanos = 0;
+    private static long spentNanos = 0;
+    private static @Nullable Double budgetOverrideMilliseconds = null;
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.START) return;
+
+        // Refill the budget
+        double budgetMilliseconds = budgetOverrideMilliseconds != null
+                                    ? budgetOverrideMilliseconds
+                                    : SFMConfig.getOrDefault(SFMConfig.COMMON.programTickTimeBudgetMilliseconds);
+        budgetNanos = (long) (budgetMilliseconds * 1_000_000);
+        spentNanos = 0;
+
+        // Give the managers that were deferred last tick the first chance to run
+        int count = DEFERRED_MANAGERS.size();
+        for (int i = 0; i < count && hasTimeRemaining(); i++) {
+            ManagerBlockEntity manager = DEFERRED_MANAGERS.removeFirst();
+            manager.tickDeferredTriggers();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        DEFERRED_MANAGERS.clear();
+        budgetOverrideMilliseconds = null;
+    }
+
+    /**
+     * Use the given budget instead of the configured one, {@code null} goes back to the config.
+     * <p>
+     * This lets game tests shrink the budget without writing to the config file.
+     */
+    public static void setBudgetOverride(@Nullable Double milliseconds) {
+        budgetOverrideMilliseconds = milliseconds;
+    }
+
+    public static boolean hasTimeRemaining() {
+        return budgetNanos <= 0 || spentNanos < budgetNanos;
+    }
+
+    /**
+     * A due timer trigger is deferred when the budget is spent.
+     */
+    public static boolean shouldDefer(Trigger trigger) {
+        return trigger instanceof TimerTrigger && !hasTimeRemaining();
+    }
+
+    public static void track(long nanos) {
+        spentNanos += nanos;
+    }
+
+    /**
+     * Put the manager at the back of the queue, does nothing if it is already queued.
+     */
+    public static void enqueue(ManagerBlockEntity manager) {
+        DEFERRED_MANAGERS.add(manager);
+    }
+}
@@ -1,14 +1,14 @@
 package ca.teamdman.sfm.common.program;
 
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 // Having this logic inside ResourceIdentifier.java causes classloading issues lol
 public class RegexCache {
-    private static final Map<String, Predicate<String>> patternCache = new Object2ObjectOpenHashMap<>();
+    // shared by the server thread and the compiler thread
+    private static final Map<String, Predicate<String>> patternCache = new ConcurrentHashMap<>();
 
     static {
         // we want to make common match-all patterns fast
@@ -0,0 +1,158 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.SFM;
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import ca.teamdman.sfml.ast.ResourceIdSet;
+import ca.teamdman.sfml.ast.ResourceIdentifier;
+import net.minecraft.ResourceLocationException;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraftforge.event.TagsUpdatedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.registries.ForgeRegistry;
+import net.minecraftforge.registries.IForgeRegistry;
+import net.minecraftforge.registries.IdMappingEvent;
+import org.apache.commons.lang3.NotImplementedException;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Matches stacks against a {@link ResourceIdSet} using a single bit test instead of testing every
+ * {@link ResourceIdentifier} against the registry key of the stack.
+ * <p>
+ * For each resource type in the set, the numeric registry id of every entry matched by an identifier of that type
+ * is set in a bitset.
+ * Numeric ids can change when the registries are remapped, so a matcher remembers the generation it was built in
+ * and {@link ResourceIdSet} rebuilds it lazily once {@link #isStale()}.
+ * <p>
+ * Resource types without a numeric registry, like energy, fall back to testing the identifiers.
+ */
+@Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE, modid = SFM.MOD_ID)
+public class RegistryIdMatcher {
+    private static volatile int generation = 0;
+    private final int GENERATION;
+    private final Entry<?, ?, ?>[] ENTRIES;
+
+    private RegistryIdMatcher(
+            int generation,
+            Entry<?, ?, ?>[] entries
+    ) {
+        this.GENERATION = generation;
+        this.ENTRIES = entries;
+    }
+
+    public static RegistryIdMatcher build(ResourceIdSet resourceIdSet) {
+        int generation = RegistryIdMatcher.generation;
+        Map<ResourceType<?, ?, ?>, List<ResourceIdentifier<?, ?, ?>>> byType = new LinkedHashMap<>();
+        resourceIdSet.stream().forEach(resourceId -> {
+            ResourceType<?, ?, ?> resourceType = resourceId.getResourceType();
+            if (resourceType == null) return; // unknown resource types never match
+            byType.computeIfAbsent(resourceType, k -> new ArrayList<>()).add(resourceId);
+        });
+        Entry<?, ?, ?>[] entries = new Entry[byType.size()];
+        int i = 0;
+        for (var entry : byType.entrySet()) {
+            entries[i++] = createEntry(entry.getKey(), entry.getValue());
+        }
+        return new RegistryIdMatcher(generation, entries);
+    }
+
+    /**
+     * Changes whenever registry ids or tags may have changed, caches derived from either should be rebuilt.
+     */
+    public static int getGeneration() {
+        return generation;
+    }
+
+    @SubscribeEvent
+    public static void onIdMapping(IdMappingEvent event) {
+        generation++;
+    }
+
+    @SubscribeEvent
+    public static void onTagsUpdated(TagsUpdatedEvent event) {
+        // datapack reloads and joining a server both update tags
+        generation++;
+    }
+
+    private static <STACK, ITEM, CAP> Entry<STACK, ITEM, CAP> createEntry(
+            ResourceType<STACK, ITEM, CAP> resourceType,
+            List<ResourceIdentifier<?, ?, ?>> resourceIds
+    ) {
+        //noinspection unchecked,rawtypes
+        List<ResourceIdentifier<STACK, ITEM, CAP>> typed = (List) resourceIds;
+        return new Entry<>(resourceType, buildIds(resourceType, typed), typed);
+    }
+
+    private static <ITEM> @Nullable BitSet buildIds(
+            ResourceType<?, ITEM, ?> resourceType,
+            List<? extends ResourceIdentifier<?, ITEM, ?>> resourceIds
+    ) {
+        IForgeRegistry<ITEM> registry;
+        try {
+            registry = resourceType.getRegistry();
+        } catch (NotImplementedException e) {
+            return null;
+        }
+        if (!(registry instanceof ForgeRegistry<ITEM> forgeRegistry)) return null;
+        BitSet rtn = new BitSet();
+        for (ResourceIdentifier<?, ITEM, ?> resourceId : resourceIds) {
+            if (!resourceId.usesRegex()) {
+                // plain identifiers match ignoring case, and registry keys are always lowercase
+                try {
+                    int id = forgeRegistry.getID(new ResourceLocation(
+                            resourceId.resourceNamespace.toLowerCase(Locale.ROOT),
+                            resourceId.resourceName.toLowerCase(Locale.ROOT)
+                    ));
+                    if (id >= 0) rtn.set(id);
+                    continue;
+                } catch (ResourceLocationException ignored) {
+                    // not a valid key, let the scan below find nothing
+                }
+            }
+            for (ResourceLocation key : forgeRegistry.getKeys()) {
+                if (!resourceId.matchesResourceLocation(key)) continue;
+                int id = forgeRegistry.getID(key);
+                if (id >= 0) rtn.set(id);
+            }
+        }
+        return rtn;
+    }
+
+    public boolean isStale() {
+        return GENERATION != generation;
+    }
+
+    /**
+     * @return the resource type of the identifiers that matched the stack, or null if none matched
+     */
+    public @Nullable ResourceType<?, ?, ?> getMatchingResourceType(Object stack) {
+        for (Entry<?, ?, ?> entry : ENTRIES) {
+            if (entry.matchesStack(stack)) {
+                return entry.resourceType();
+            }
+        }
+        return null;
+    }
+
+    private record Entry<STACK, ITEM, CAP>(
+            ResourceType<STACK, ITEM, CAP> resourceType,
+            @Nullable BitSet ids,
+            List<ResourceIdentifier<STACK, ITEM, CAP>> resourceIds
+    ) {
+        public boolean matchesStack(Object stack) {
+            if (!resourceType.matchesStackType(stack)) return false;
+            if (ids == null) {
+                for (ResourceIdentifier<STACK, ITEM, CAP> resourceId : resourceIds) {
+                    if (resourceType.matchesStack(resourceId, stack)) return true;
+                }
+                return false;
+            }
+            @SuppressWarnings("unchecked") STACK stack_ = (STACK) stack;
+            if (resourceType.isEmpty(stack_)) return false;
+            int id = resourceType.getRegistryId(resourceType.getItem(stack_));
+            return id >= 0 && ids.get(id);
+        }
+    }
+}
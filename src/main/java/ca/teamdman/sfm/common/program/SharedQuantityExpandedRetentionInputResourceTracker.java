@@ -5,19 +5,16 @@ import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 import net.minecraft.core.BlockPos;
-import net.minecraft.resources.ResourceLocation;
 
 @SuppressWarnings("DuplicatedCode")
 public class SharedQuantityExpandedRetentionInputResourceTracker implements IInputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
-    private final Long2ObjectOpenHashMap<Int2ObjectArrayMap<Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>>>
+    private final Long2ObjectOpenHashMap<Int2ObjectArrayMap<Reference2LongOpenHashMap<Object>>>
             retention_obligations_by_pos_by_slot_by_item = new Long2ObjectOpenHashMap<>();
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            retention_obligations_by_item = new Object2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> retention_obligations_by_item = new Reference2LongOpenHashMap<>();
     private long transferred = 0;
 
     public SharedQuantityExpandedRetentionInputResourceTracker(
@@ -37,6 +34,13 @@ public class SharedQuantityExpandedRetentionInputResourceTracker implements IInp
         return transferred >= can_transfer;
     }
 
+    @Override
+    public void reset() {
+        retention_obligations_by_pos_by_slot_by_item.clear();
+        retention_obligations_by_item.clear();
+        transferred = 0;
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
@@ -56,13 +60,9 @@ public class SharedQuantityExpandedRetentionInputResourceTracker implements IInp
     ) {
         var posEntry = retention_obligations_by_pos_by_slot_by_item.get(pos.asLong());
         if (posEntry != null) {
-            var resourceTypeEntry = posEntry.get(slot);
-            if (resourceTypeEntry != null) {
-                ResourceLocation item_id = resourceType.getRegistryKey(stack);
-                var itemEntry = resourceTypeEntry.get(resourceType);
-                if (itemEntry != null) {
-                    return itemEntry.getLong(item_id);
-                }
+            var slotEntry = posEntry.get(slot);
+            if (slotEntry != null) {
+                return slotEntry.getLong(resourceType.getItem(stack));
             }
         }
         return 0;
@@ -74,15 +74,7 @@ public class SharedQuantityExpandedRetentionInputResourceTracker implements IInp
             STACK stack
     ) {
         long retention = resource_limit.limit().retention().number().value();
-        long progress = 0;
-        // don't use getOrDefault to avoid allocations
-        var entry = retention_obligations_by_item.get(resourceType);
-        if (entry != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            if (entry.containsKey(item_id)) {
-                progress = entry.getLong(item_id);
-            }
-        }
+        long progress = retention_obligations_by_item.getLong(resourceType.getItem(stack));
         return retention - progress;
     }
 
@@ -94,14 +86,12 @@ public class SharedQuantityExpandedRetentionInputResourceTracker implements IInp
             BlockPos pos,
             long promise
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
-        retention_obligations_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, promise);
+        Object item = resourceType.getItem(stack);
+        retention_obligations_by_item.addTo(item, promise);
         retention_obligations_by_pos_by_slot_by_item
                 .computeIfAbsent(pos.asLong(), k -> new Int2ObjectArrayMap<>())
-                .computeIfAbsent(slot, k -> new Object2ObjectOpenHashMap<>())
-                .computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, promise);
+                .computeIfAbsent(slot, k -> new Reference2LongOpenHashMap<>())
+                .addTo(item, promise);
     }
 
     @Override
@@ -134,8 +124,7 @@ public class SharedQuantityExpandedRetentionInputResourceTracker implements IInp
                ", RETENTION_OBLIGATION_PROGRESS="
                + retention_obligations_by_item
                        .values()
-                       .stream()
-                       .flatMapToLong(x -> x.values().longStream())
+                       .longStream()
                        .sum()
                +
                ", RESOURCE_LIMIT="
@@ -3,16 +3,13 @@ package ca.teamdman.sfm.common.program;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
-import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-import net.minecraft.resources.ResourceLocation;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
 
 @SuppressWarnings("DuplicatedCode")
 public class SharedQuantityExpandedRetentionOutputResourceTracker implements IOutputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
-    private final Object2ObjectOpenHashMap<ResourceType<?, ?, ?>, Object2LongOpenHashMap<ResourceLocation>>
-            retention_obligations_by_item = new Object2ObjectOpenHashMap<>();
+    private final Reference2LongOpenHashMap<Object> retention_obligations_by_item = new Reference2LongOpenHashMap<>();
     private long transferred = 0;
 
     public SharedQuantityExpandedRetentionOutputResourceTracker(
@@ -23,6 +20,12 @@ public class SharedQuantityExpandedRetentionOutputResourceTracker implements IOu
         this.exclusions = exclusions;
     }
 
+    @Override
+    public void reset() {
+        retention_obligations_by_item.clear();
+        transferred = 0;
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
@@ -44,12 +47,7 @@ public class SharedQuantityExpandedRetentionOutputResourceTracker implements IOu
         }
 
         long max_put = resource_limit.limit().retention().number().value();
-        long retained_for_item = 0;
-        var retained_for_resource_type = retention_obligations_by_item.get(type);
-        if (retained_for_resource_type != null) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            retained_for_item = retained_for_resource_type.getLong(item_id);
-        }
+        long retained_for_item = retention_obligations_by_item.getLong(type.getItem(stack));
         return retained_for_item >= max_put;
     }
 
@@ -59,9 +57,8 @@ public class SharedQuantityExpandedRetentionOutputResourceTracker implements IOu
             STACK stack
     ) {
         if (matchesStack(stack)) {
-            ResourceLocation item_id = type.getRegistryKey(stack);
-            retention_obligations_by_item.computeIfAbsent(type, k -> new Object2LongOpenHashMap<>())
-                    .addTo(item_id, type.getAmount(stack));
+            Object item = type.getItem(stack);
+            retention_obligations_by_item.addTo(item, type.getAmount(stack));
         }
     }
 
@@ -74,12 +71,7 @@ public class SharedQuantityExpandedRetentionOutputResourceTracker implements IOu
         long unusedQuantity = max_transfer - transferred;
 
         long max_retain = resource_limit.limit().retention().number().value();
-        long retained_for_item = 0;
-        var retained_for_resource_type = retention_obligations_by_item.get(resourceType);
-        if (retained_for_resource_type != null) {
-            ResourceLocation item_id = resourceType.getRegistryKey(stack);
-            retained_for_item = retained_for_resource_type.getLong(item_id);
-        }
+        long retained_for_item = retention_obligations_by_item.getLong(resourceType.getItem(stack));
         long remainingRetentionRoom = max_retain - retained_for_item;
 
         return Math.min(unusedQuantity, remainingRetentionRoom);
@@ -91,10 +83,9 @@ public class SharedQuantityExpandedRetentionOutputResourceTracker implements IOu
             STACK stack,
             long amount
     ) {
-        ResourceLocation item_id = resourceType.getRegistryKey(stack);
+        Object item = resourceType.getItem(stack);
         transferred += amount;
-        retention_obligations_by_item.computeIfAbsent(resourceType, k -> new Object2LongOpenHashMap<>())
-                .addTo(item_id, amount);
+        retention_obligations_by_item.addTo(item, amount);
     }
 
     @Override
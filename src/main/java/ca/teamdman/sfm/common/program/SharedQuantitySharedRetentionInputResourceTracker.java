@@ -3,14 +3,12 @@ package ca.teamdman.sfm.common.program;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfml.ast.ResourceIdSet;
 import ca.teamdman.sfml.ast.ResourceLimit;
-import it.unimi.dsi.fastutil.ints.Int2LongArrayMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.core.BlockPos;
 
 public class SharedQuantitySharedRetentionInputResourceTracker implements IInputResourceTracker {
     private final ResourceLimit resource_limit;
     private final ResourceIdSet exclusions;
-    private final Long2ObjectOpenHashMap<Int2LongArrayMap> retention_obligations_by_pos_by_slot = new Long2ObjectOpenHashMap<>();
+    private final SlotLongTable retention_obligations_by_pos_by_slot = new SlotLongTable();
     private long transferred = 0;
     private long retention_obligation_progress = 0;
 
@@ -38,11 +36,7 @@ public class SharedQuantitySharedRetentionInputResourceTracker implements IInput
             BlockPos pos,
             int slot
     ) {
-        var posEntry = retention_obligations_by_pos_by_slot.get(pos.asLong());
-        if (posEntry == null) {
-            return 0;
-        }
-        return posEntry.getOrDefault(slot, 0);
+        return retention_obligations_by_pos_by_slot.get(pos.asLong(), slot);
     }
 
     @Override
@@ -62,9 +56,14 @@ public class SharedQuantitySharedRetentionInputResourceTracker implements IInput
             long promise
     ) {
         this.retention_obligation_progress += promise;
-        this.retention_obligations_by_pos_by_slot
-                .computeIfAbsent(pos.asLong(), k -> new Int2LongArrayMap())
-                .merge(slot, promise, Long::sum);
+        this.retention_obligations_by_pos_by_slot.addTo(pos.asLong(), slot, promise);
+    }
+
+    @Override
+    public void reset() {
+        retention_obligations_by_pos_by_slot.clear();
+        transferred = 0;
+        retention_obligation_progress = 0;
     }
 
     @Override
@@ -19,6 +19,12 @@ public class SharedQuantitySharedRetentionOutputResourceTracker implements IOutp
         this.exclusions = exclusions;
     }
 
+    @Override
+    public void reset() {
+        transferred = 0;
+        retention_obligation_progress = 0;
+    }
+
     @Override
     public ResourceLimit getResourceLimit() {
         return resource_limit;
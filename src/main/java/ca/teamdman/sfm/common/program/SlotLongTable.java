@@ -0,0 +1,118 @@
+package ca.teamdman.sfm.common.program;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing table from a packed block position and a slot to a long.
+ * <p>
+ * Entries are stored in parallel arrays and found by linear probing, so a lookup is a single probe sequence
+ * instead of one hash lookup for the position and another for the slot.
+ * <p>
+ * {@link #clear()} only advances a generation counter.
+ * Entries written in an older generation count as empty, so a tracker can be reset every tick
+ * without touching or reallocating the table.
+ */
+public class SlotLongTable {
+    private static final int INITIAL_CAPACITY = 16;
+    private long[] positions;
+    private int[] slots;
+    private long[] values;
+    private int[] generations;
+    private int generation = 1;
+    private int size = 0;
+
+    public SlotLongTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private static int hash(
+            long pos,
+            int slot
+    ) {
+        return (int) HashCommon.mix(pos ^ (slot * 0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * @return the value for the slot, or 0 if there is none
+     */
+    public long get(
+            long pos,
+            int slot
+    ) {
+        int mask = positions.length - 1;
+        int i = hash(pos, slot) & mask;
+        while (generations[i] == generation) {
+            if (positions[i] == pos && slots[i] == slot) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    public void addTo(
+            long pos,
+            int slot,
+            long amount
+    ) {
+        int mask = positions.length - 1;
+        int i = hash(pos, slot) & mask;
+        while (generations[i] == generation) {
+            if (positions[i] == pos && slots[i] == slot) {
+                values[i] += amount;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        generations[i] = generation;
+        positions[i] = pos;
+        slots[i] = slot;
+        values[i] = amount;
+        if (++size * 2 > positions.length) {
+            grow();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        generation++;
+        if (generation == 0) {
+            // wrapped around, entries from long ago could look current again
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    private void allocate(int capacity) {
+        positions = new long[capacity];
+        slots = new int[capacity];
+        values = new long[capacity];
+        generations = new int[capacity];
+    }
+
+    private void grow() {
+        long[] oldPositions = positions;
+        int[] oldSlots = slots;
+        long[] oldValues = values;
+        int[] oldGenerations = generations;
+        allocate(oldPositions.length * 2);
+        int mask = positions.length - 1;
+        for (int j = 0; j < oldPositions.length; j++) {
+            if (oldGenerations[j] != generation) continue;
+            int i = hash(oldPositions[j], oldSlots[j]) & mask;
+            while (generations[i] == generation) {
+                i = (i + 1) & mask;
+            }
+            generations[i] = generation;
+            positions[i] = oldPositions[j];
+            slots[i] = oldSlots[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.SFM;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+/**
+ * Spreads timer triggers across their interval.
+ * <p>
+ * Every manager starts counting ticks at zero when it loads,
+ * so without this, all the {@code EVERY 20 TICKS} managers loaded together would fire on the same server tick.
+ * <p>
+ * Each manager is handed a phase for each interval it uses, see {@link #assignPhase(int)}.
+ * Phases are handed out in turn, so managers sharing an interval are evenly spread across it.
+ * Triggers in the same manager with the same interval share a phase, so they still fire together.
+ */
+@Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE, modid = SFM.MOD_ID)
+public class TimerTriggerScheduler {
+    private static final Int2IntOpenHashMap NEXT_PHASE_BY_INTERVAL = new Int2IntOpenHashMap();
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        NEXT_PHASE_BY_INTERVAL.clear();
+    }
+
+    /**
+     * @return the tick within the interval on which the trigger should fire
+     */
+    public static int assignPhase(int interval) {
+        if (interval <= 1) return 0;
+        int phase = NEXT_PHASE_BY_INTERVAL.get(interval);
+        NEXT_PHASE_BY_INTERVAL.put(interval, (phase + 1) % interval);
+        return phase;
+    }
+}
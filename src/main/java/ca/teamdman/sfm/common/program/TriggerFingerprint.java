@@ -0,0 +1,131 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import ca.teamdman.sfml.ast.*;
+import com.mojang.datafixers.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lets a manager skip a {@link TimerTrigger} that would do nothing.
+ * <p>
+ * After a run that moved nothing, we remember a hash of the item identity and count in every slot the trigger looks at.
+ * If that hash is unchanged the next time the trigger fires, running it again would also move nothing.
+ * <p>
+ * Triggers that depend on more than inventory contents, such as redstone conditions or round robin,
+ * are never skipped.
+ */
+public class TriggerFingerprint {
+    private final List<Pair<LabelAccess, Set<ResourceType<?, ?, ?>>>> ACCESSES = new ArrayList<>();
+    private final boolean ELIGIBLE;
+    private boolean idle = false;
+    private long idleFingerprint = 0;
+    private boolean hasPendingFingerprint = false;
+    private long pendingFingerprint = 0;
+
+    public TriggerFingerprint(Trigger trigger) {
+        this.ELIGIBLE = trigger instanceof TimerTrigger && gather(trigger);
+    }
+
+    /**
+     * Check if the trigger can be skipped.
+     * <p>
+     * Must be followed by {@link #update(ProgramContext, boolean)} if the trigger is run.
+     */
+    public boolean isUnchanged(ProgramContext context) {
+        if (!ELIGIBLE || !idle) return false;
+        long fingerprint = compute(context);
+        if (fingerprint == idleFingerprint) return true;
+        // the trigger will run, remember this in case it moves nothing
+        pendingFingerprint = fingerprint;
+        hasPendingFingerprint = true;
+        return false;
+    }
+
+    /**
+     * Record the result of running the trigger.
+     */
+    public void update(
+            ProgramContext context,
+            boolean didMove
+    ) {
+        if (!ELIGIBLE) return;
+        if (didMove) {
+            idle = false;
+        } else {
+            idle = true;
+            // nothing moved, so the inventories look the same as before the trigger ran
+            idleFingerprint = hasPendingFingerprint ? pendingFingerprint : compute(context);
+        }
+        hasPendingFingerprint = false;
+    }
+
+    private long compute(ProgramContext context) {
+        long hash = 1;
+        for (var access : ACCESSES) {
+            LabelAccess labelAccess = access.getFirst();
+            for (ResourceType<?, ?, ?> resourceType : access.getSecond()) {
+                hash = 31 * hash + accumulate(context, labelAccess, resourceType);
+            }
+        }
+        return hash;
+    }
+
+    private <STACK, ITEM, CAP> long accumulate(
+            ProgramContext context,
+            LabelAccess labelAccess,
+            ResourceType<STACK, ITEM, CAP> type
+    ) {
+        InventorySnapshot snapshot = context.getInventorySnapshot();
+        long[] hash = {1};
+        type.forEachCapability(context, labelAccess, (label, pos, direction, cap) -> {
+            hash[0] = 31 * hash[0] + pos.asLong();
+            int slots = type.getSlots(cap);
+            for (int slot = 0; slot < slots; slot++) {
+                if (!labelAccess.slots().contains(slot)) continue;
+                STACK stack = snapshot.getStackInSlot(type, pos, direction, cap, slot);
+                hash[0] = 31 * hash[0] + System.identityHashCode(type.getItem(stack));
+                hash[0] = 31 * hash[0] + type.getAmount(stack);
+            }
+        });
+        return hash[0];
+    }
+
+    /**
+     * Collect the inventories the trigger looks at.
+     *
+     * @return {@code false} if the trigger depends on anything else
+     */
+    private boolean gather(Statement statement) {
+        if (statement instanceof IOStatement io) {
+            if (io.labelAccess().roundRobin().isEnabled()) return false;
+            ACCESSES.add(Pair.of(io.labelAccess(), io.resourceLimits().getReferencedResourceTypes()));
+        } else if (statement instanceof IfStatement ifStatement) {
+            if (!gather(ifStatement.condition())) return false;
+        }
+        for (Statement child : statement.getStatements()) {
+            if (!gather(child)) return false;
+        }
+        return true;
+    }
+
+    private boolean gather(BoolExpr expr) {
+        if (expr instanceof BoolHas has) {
+            if (has.labelAccess().roundRobin().isEnabled()) return false;
+            ACCESSES.add(Pair.of(has.labelAccess(), has.resourceIdSet().getReferencedResourceTypes()));
+            return true;
+        } else if (expr instanceof BoolConjunction conjunction) {
+            return gather(conjunction.left()) && gather(conjunction.right());
+        } else if (expr instanceof BoolDisjunction disjunction) {
+            return gather(disjunction.left()) && gather(disjunction.right());
+        } else if (expr instanceof BoolNegation negation) {
+            return gather(negation.inner());
+        } else if (expr instanceof BoolParen paren) {
+            return gather(paren.inner());
+        } else {
+            return expr instanceof BoolTrue || expr instanceof BoolFalse;
+        }
+    }
+}
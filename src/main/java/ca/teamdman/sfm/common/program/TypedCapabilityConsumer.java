@@ -0,0 +1,21 @@
+package ca.teamdman.sfm.common.program;
+
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import ca.teamdman.sfml.ast.Label;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+
+/**
+ * Like {@link CapabilityConsumer}, for visiting the capabilities of several resource types at once,
+ * see {@link ca.teamdman.sfml.ast.LoweredLabelAccess#forEachCapability(ProgramContext, TypedCapabilityConsumer)}.
+ */
+@FunctionalInterface
+public interface TypedCapabilityConsumer {
+    void accept(
+            ResourceType<?, ?, ?> resourceType,
+            Label label,
+            BlockPos pos,
+            Direction direction,
+            Object cap
+    );
+}
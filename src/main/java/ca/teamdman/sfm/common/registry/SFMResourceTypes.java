@@ -54,10 +54,13 @@ public class SFMResourceTypes {
     private static final Int2ObjectArrayMap<ResourceType<?, ?, ?>> DEFERRED_TYPES_BY_ID = new Int2ObjectArrayMap<>();
 
     public static @Nullable ResourceType<?, ?, ?> fastLookup(String resourceTypeNamespace, String resourceTypeName) {
-        return DEFERRED_TYPES_BY_ID.computeIfAbsent(
-                resourceTypeNamespace.hashCode() ^ resourceTypeName.hashCode(),
-                i -> DEFERRED_TYPES.get().getValue(new ResourceLocation(resourceTypeNamespace, resourceTypeName))
-        );
+        // locked because resource ids are also built on the program compiler thread
+        synchronized (DEFERRED_TYPES_BY_ID) {
+            return DEFERRED_TYPES_BY_ID.computeIfAbsent(
+                    resourceTypeNamespace.hashCode() ^ resourceTypeName.hashCode(),
+                    i -> DEFERRED_TYPES.get().getValue(new ResourceLocation(resourceTypeNamespace, resourceTypeName))
+            );
+        }
     }
 
     public static Stream<Capability<?>> getCapabilities() {
@@ -6,6 +6,7 @@ import net.minecraft.world.level.material.Fluid;
 import net.minecraftforge.common.capabilities.ForgeCapabilities;
 import net.minecraftforge.fluids.FluidStack;
 import net.minecraftforge.fluids.capability.IFluidHandler;
+import net.minecraftforge.fluids.capability.templates.FluidTank;
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.IForgeRegistry;
 
@@ -75,6 +76,16 @@ public class FluidResourceType extends ResourceType<FluidStack, Fluid, IFluidHan
         return o instanceof IFluidHandler;
     }
 
+    /**
+     * A {@link FluidTank} has a single tank that only fills with what it already holds.
+     * Handlers with more tanks pick the tank themselves on fill, so they can't be indexed by the tank that was asked for.
+     * Subclasses are not included since they may override fill.
+     */
+    @Override
+    public boolean canIndexSlotsByContents(IFluidHandler handler) {
+        return handler.getClass() == FluidTank.class;
+    }
+
     @Override
     public int getSlots(IFluidHandler handler) {
         return handler.getTanks();
@@ -99,6 +110,22 @@ public class FluidResourceType extends ResourceType<FluidStack, Fluid, IFluidHan
         return new FluidStack(stack.getFluid(), stack.getAmount() - x);
     }
 
+    /**
+     * Fluid handlers pick their own tanks, so a single fill covers every slot.
+     */
+    @Override
+    public FluidStack insert(
+            IFluidHandler handler,
+            int[] slots,
+            int from,
+            int to,
+            FluidStack stack,
+            boolean simulate
+    ) {
+        if (from == to) return stack;
+        return insert(handler, slots[from], stack, simulate);
+    }
+
     @Override
     public boolean isEmpty(FluidStack stack) {
         return stack.isEmpty();
@@ -9,12 +9,26 @@ import net.minecraft.world.level.block.Blocks;
 import net.minecraftforge.common.capabilities.ForgeCapabilities;
 import net.minecraftforge.event.entity.player.ItemTooltipEvent;
 import net.minecraftforge.items.IItemHandler;
+import net.minecraftforge.items.ItemStackHandler;
+import net.minecraftforge.items.wrapper.InvWrapper;
+import net.minecraftforge.items.wrapper.SidedInvWrapper;
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.IForgeRegistry;
 
+import java.util.Set;
 import java.util.stream.Stream;
 
 public class ItemResourceType extends ResourceType<ItemStack, Item, IItemHandler> {
+    /**
+     * Handlers known to only stack an insert onto what a slot already holds.
+     * Subclasses are not included since they may override insertItem, e.g. drawers and virtual storage.
+     */
+    private static final Set<Class<?>> INDEXABLE_HANDLERS = Set.of(
+            InvWrapper.class,
+            SidedInvWrapper.class,
+            ItemStackHandler.class
+    );
+
     public ItemResourceType() {
         super(ForgeCapabilities.ITEM_HANDLER);
     }
@@ -71,6 +85,11 @@ public class ItemResourceType extends ResourceType<ItemStack, Item, IItemHandler
         return o instanceof IItemHandler;
     }
 
+    @Override
+    public boolean canIndexSlotsByContents(IItemHandler handler) {
+        return INDEXABLE_HANDLERS.contains(handler.getClass());
+    }
+
     /**
      * We want to also return block tags here.
      * <p>
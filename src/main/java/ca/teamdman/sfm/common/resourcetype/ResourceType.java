@@ -2,19 +2,18 @@ package ca.teamdman.sfm.common.resourcetype;
 
 import ca.teamdman.sfm.common.localization.LocalizationKeys;
 import ca.teamdman.sfm.common.program.CapabilityConsumer;
-import ca.teamdman.sfm.common.program.LabelPositionHolder;
 import ca.teamdman.sfm.common.program.ProgramContext;
 import ca.teamdman.sfm.common.registry.SFMResourceTypes;
 import ca.teamdman.sfml.ast.*;
-import com.mojang.datafixers.util.Pair;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.registries.ForgeRegistry;
 import net.minecraftforge.registries.IForgeRegistry;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -82,6 +81,34 @@ public abstract class ResourceType<STACK, ITEM, CAP> {
             boolean simulate
     );
 
+    /**
+     * Insert into several slots of the same handler in one call, filling them in the order given.
+     * <p>
+     * Handlers that don't need to be told which slot to use can override this to touch the handler once
+     * instead of once per slot.
+     * <p>
+     * Items use this default since {@link net.minecraftforge.items.IItemHandler} can only insert into one slot at a time,
+     * it stops as soon as the stack has been placed so a run is only touched for the slots the stack needs.
+     *
+     * @param from the index in {@code slots} of the first slot, inclusive
+     * @param to   the index in {@code slots} of the last slot, exclusive
+     * @return remaining stack that was not inserted
+     */
+    public STACK insert(
+            CAP cap,
+            int[] slots,
+            int from,
+            int to,
+            STACK stack,
+            boolean simulate
+    ) {
+        STACK remainder = stack;
+        for (int i = from; i < to && !isEmpty(remainder); i++) {
+            remainder = insert(cap, slots[i], remainder, simulate);
+        }
+        return remainder;
+    }
+
     public abstract boolean isEmpty(STACK stack);
 
     @SuppressWarnings("unused")
@@ -102,6 +129,17 @@ public abstract class ResourceType<STACK, ITEM, CAP> {
 
     public abstract boolean matchesCapabilityType(Object o);
 
+    /**
+     * Whether the stacks reported by this capability describe what its slots will accept.
+     * <p>
+     * When true, a partially filled slot is assumed to only accept more of what it already holds,
+     * letting output statements skip slots that can't possibly accept an input.
+     * When false, every slot is tried against every input.
+     */
+    public boolean canIndexSlotsByContents(CAP cap) {
+        return false;
+    }
+
     public void forEachCapability(
             ProgramContext programContext,
             LabelAccess labelAccess,
@@ -116,19 +154,15 @@ public abstract class ResourceType<STACK, ITEM, CAP> {
                         labelAccess
                 )));
 
-        LabelPositionHolder labelPositionHolder = programContext.getLabelPositionHolder();
-        ArrayList<Pair<Label, BlockPos>> positions = labelAccess.getLabelledPositions(labelPositionHolder);
-
-        for (var pair : positions) {
-            Label label = pair.getFirst();
-            BlockPos pos = pair.getSecond();
-            forEachDirectionalCapability(
-                    programContext,
-                    labelAccess.directions(),
-                    pos,
-                    (dir, cap) -> consumer.accept(label, pos, dir, cap)
-            );
-        }
+        programContext.getLabelAccessPositions(labelAccess).forEach(
+                labelAccess.roundRobin(),
+                (label, pos) -> forEachDirectionalCapability(
+                        programContext,
+                        labelAccess.directions(),
+                        pos,
+                        (dir, cap) -> consumer.accept(label, pos, dir, cap)
+                )
+        );
     }
 
     public void forEachDirectionalCapability(
@@ -138,32 +172,46 @@ public abstract class ResourceType<STACK, ITEM, CAP> {
             BiConsumer<Direction, CAP> consumer
     ) {
         for (Direction dir : directions) {
-            Optional<CAP> maybeCap = programContext.getNetwork()
-                    .getCapability(CAPABILITY_KIND, pos, dir, programContext.getLogger())
-                    .resolve();
-            if (maybeCap.isPresent()) {
-                programContext
-                        .getLogger()
-                        .debug(x -> x.accept(LocalizationKeys.LOG_RESOURCE_TYPE_GET_CAPABILITIES_CAP_PRESENT.get(
-                                displayAsCapabilityClass(),
-                                pos,
-                                dir
-                        )));
-                CAP cap = maybeCap.get();
+            CAP cap = getCapability(programContext, pos, dir);
+            if (cap != null) {
                 consumer.accept(dir, cap);
-            } else {
-                // Log error
-                programContext
-                        .getLogger()
-                        .error(x -> x.accept(LocalizationKeys.LOG_RESOURCE_TYPE_GET_CAPABILITIES_CAP_NOT_PRESENT.get(
-                                displayAsCapabilityClass(),
-                                pos,
-                                dir
-                        )));
             }
         }
     }
 
+    /**
+     * @return the capability on the given side, or null if it isn't present
+     */
+    public @Nullable CAP getCapability(
+            ProgramContext programContext,
+            BlockPos pos,
+            Direction dir
+    ) {
+        Optional<CAP> maybeCap = programContext.getNetwork()
+                .getCapability(CAPABILITY_KIND, pos, dir, programContext.getLogger())
+                .resolve();
+        if (maybeCap.isPresent()) {
+            programContext
+                    .getLogger()
+                    .debug(x -> x.accept(LocalizationKeys.LOG_RESOURCE_TYPE_GET_CAPABILITIES_CAP_PRESENT.get(
+                            displayAsCapabilityClass(),
+                            pos,
+                            dir
+                    )));
+            return maybeCap.get();
+        } else {
+            // Log error
+            programContext
+                    .getLogger()
+                    .error(x -> x.accept(LocalizationKeys.LOG_RESOURCE_TYPE_GET_CAPABILITIES_CAP_NOT_PRESENT.get(
+                            displayAsCapabilityClass(),
+                            pos,
+                            dir
+                    )));
+            return null;
+        }
+    }
+
     public abstract Stream<ResourceLocation> getTagsForStack(STACK stack);
 
     public Stream<STACK> getStacksInSlots(
@@ -199,6 +247,13 @@ public abstract class ResourceType<STACK, ITEM, CAP> {
 
     public abstract IForgeRegistry<ITEM> getRegistry();
 
+    /**
+     * @return the numeric id of the item in the registry, or -1 if it has none
+     */
+    public int getRegistryId(ITEM item) {
+        return getRegistry() instanceof ForgeRegistry<ITEM> forgeRegistry ? forgeRegistry.getID(item) : -1;
+    }
+
     public abstract ITEM getItem(STACK stack);
 
     public abstract STACK copy(STACK stack);
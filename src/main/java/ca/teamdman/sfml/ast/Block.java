@@ -2,15 +2,42 @@ package ca.teamdman.sfml.ast;
 
 import ca.teamdman.sfm.common.localization.LocalizationKeys;
 import ca.teamdman.sfm.common.program.ProgramContext;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
 public record Block(List<Statement> statements) implements Statement {
     @Override
     public void tick(ProgramContext context) {
-        for (Statement statement : statements) {
+        tick(context, null);
+    }
+
+    /**
+     * Tick the statements in order.
+     * <p>
+     * When the trigger's time slice runs out, the block stops between statements and records where to continue,
+     * see {@link ProgramContext#suspend(Block, int)}.
+     *
+     * @param lowered the lowered statements to run in place of the statements, see {@link ProgramLowering}
+     */
+    public void tick(
+            ProgramContext context,
+            @Nullable ProgramLowering.LoweredStatement[] lowered
+    ) {
+        int resumeIndex = context.takeResumeIndex(this);
+        for (int i = resumeIndex; i < statements.size(); i++) {
+            // always make progress before yielding
+            if (i > resumeIndex && context.shouldYield()) {
+                context.suspend(this, i);
+                return;
+            }
+            Statement statement = statements.get(i);
             long start = System.nanoTime();
-            statement.tick(context);
+            if (lowered != null) {
+                lowered[i].tick(context);
+            } else {
+                statement.tick(context);
+            }
             float elapsed = (System.nanoTime() - start) / 1_000_000f;
             if (statement instanceof ToStringPretty ps) {
                 context.getLogger().info(x -> x.accept(LocalizationKeys.PROGRAM_TICK_STATEMENT_TIME_MS.get(
@@ -23,6 +50,11 @@ public record Block(List<Statement> statements) implements Statement {
                         statement.toString()
                 )));
             }
+            // a nested block stopped early, continue with the same statement next time
+            if (context.isSuspending()) {
+                context.suspend(this, i);
+                return;
+            }
         }
     }
 
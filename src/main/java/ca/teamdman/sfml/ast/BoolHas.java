@@ -1,14 +1,11 @@
 package ca.teamdman.sfml.ast;
 
-import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import ca.teamdman.sfm.common.program.InventorySnapshot;
+import ca.teamdman.sfm.common.program.LabelAccessPositions;
 import ca.teamdman.sfm.common.program.ProgramContext;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
-import com.mojang.datafixers.util.Pair;
 import net.minecraft.core.BlockPos;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
+import net.minecraft.core.Direction;
 
 public record BoolHas(
         SetOperator setOperator,
@@ -22,27 +19,43 @@ public record BoolHas(
 
     @Override
     public boolean test(ProgramContext programContext) {
-        AtomicLong overallCount = new AtomicLong(0);
-        List<Boolean> satisfactionResults = new ArrayList<>();
-        LabelPositionHolder labelPositionHolder = programContext.getLabelPositionHolder();
-        ArrayList<Pair<Label, BlockPos>> labelledPositions = labelAccess.getLabelledPositions(labelPositionHolder);
-        for (Pair<Label, BlockPos> entry : labelledPositions) {
-            BlockPos pos = entry.getSecond();
-            AtomicLong inThisInv = new AtomicLong(0);
-            for (ResourceType<?, ?, ?> resourceType : resourceIdSet.getReferencedResourceTypes()) {
-                accumulate(
-                        programContext,
-                        pos,
-                        overallCount,
-                        inThisInv,
-                        resourceType
-                );
+        return test(programContext, new LoweredLabelAccess(labelAccess, resourceIdSet::getReferencedResourceTypes));
+    }
+
+    /**
+     * Shared by the AST and the lowered form, see {@link ProgramLowering}.
+     * <p>
+     * Counting stops as soon as the result can't change, see {@link ComparisonOperator#isDecided(long, long)}
+     * and {@link SetOperator#isDecided(int, int)}.
+     */
+    public boolean test(
+            ProgramContext programContext,
+            LoweredLabelAccess access
+    ) {
+        LabelAccessPositions positions = access.getPositions(programContext);
+        int selection = positions.select(labelAccess.roundRobin());
+        int start = positions.getSelectionStart(selection);
+        int end = positions.getSelectionEnd(selection);
+        if (setOperator == SetOperator.OVERALL) {
+            long overallCount = 0;
+            for (int i = start; i < end; i++) {
+                overallCount = count(programContext, access, positions.getPosition(i), overallCount);
+                if (comparisonOperator.isDecided(overallCount, quantity)) break;
             }
-            satisfactionResults.add(comparisonOperator.test(inThisInv.get(), quantity));
+            return comparisonOperator.test(overallCount, quantity);
         }
-
-        var isOverallSatisfied = this.comparisonOperator.test(overallCount.get(), this.quantity);
-        return setOperator.test(isOverallSatisfied, satisfactionResults);
+        int satisfied = 0;
+        int unsatisfied = 0;
+        for (int i = start; i < end; i++) {
+            long inThisInv = count(programContext, access, positions.getPosition(i), 0);
+            if (comparisonOperator.test(inThisInv, quantity)) {
+                satisfied++;
+            } else {
+                unsatisfied++;
+            }
+            if (setOperator.isDecided(satisfied, unsatisfied)) break;
+        }
+        return setOperator.test(false, satisfied, unsatisfied);
     }
 
     @Override
@@ -60,26 +73,45 @@ public record BoolHas(
                + (except.isEmpty() ? "" : " EXCEPT " + except.toStringCondensed());
     }
 
-    private <STACK, ITEM, CAP> void accumulate(
+    /**
+     * Add the matching amount at the position to the count, stopping once the comparison is decided.
+     */
+    private long count(
             ProgramContext programContext,
+            LoweredLabelAccess access,
             BlockPos pos,
-            AtomicLong overallAccumulator,
-            AtomicLong invAccumulator,
-            ResourceType<STACK, ITEM, CAP> resourceType
+            long count
     ) {
-        resourceType.forEachDirectionalCapability(
-                programContext,
-                labelAccess.directions(),
-                pos,
-                (direction, cap) -> resourceType.getStacksInSlots(cap, labelAccess.slots()).forEach(stack -> {
-                    if (this.resourceIdSet.getMatchingFromStack(stack) != null) {
-                        if (with.matchesStack(resourceType, stack)) {
-                            long amount = resourceType.getAmount(stack);
-                            invAccumulator.addAndGet(amount);
-                            overallAccumulator.addAndGet(amount);
-                        }
+        for (ResourceType<?, ?, ?> resourceType : access.getResourceTypes()) {
+            count = count(programContext, access, pos, resourceType, count);
+            if (comparisonOperator.isDecided(count, quantity)) break;
+        }
+        return count;
+    }
+
+    private <STACK, ITEM, CAP> long count(
+            ProgramContext programContext,
+            LoweredLabelAccess access,
+            BlockPos pos,
+            ResourceType<STACK, ITEM, CAP> resourceType,
+            long count
+    ) {
+        InventorySnapshot snapshot = programContext.getInventorySnapshot();
+        for (Direction direction : access.getDirections()) {
+            CAP cap = resourceType.getCapability(programContext, pos, direction);
+            if (cap == null) continue;
+            for (int slot = 0; slot < resourceType.getSlots(cap); slot++) {
+                if (!access.containsSlot(slot)) continue;
+                STACK stack = snapshot.getStackInSlot(resourceType, pos, direction, cap, slot);
+                if (resourceType.isEmpty(stack)) continue;
+                if (this.resourceIdSet.anyMatchStack(stack)) {
+                    if (with.matchesStack(resourceType, stack)) {
+                        count += resourceType.getAmount(stack);
+                        if (comparisonOperator.isDecided(count, quantity)) return count;
                     }
-                })
-        );
+                }
+            }
+        }
+        return count;
     }
 }
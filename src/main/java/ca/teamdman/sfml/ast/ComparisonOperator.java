@@ -4,17 +4,11 @@ import java.util.Locale;
 import java.util.function.BiPredicate;
 
 public enum ComparisonOperator implements ASTNode, BiPredicate<Long, Long>, ToStringPretty {
-    GREATER((a, b) -> a > b),
-    LESSER((a, b) -> a < b),
-    EQUALS(Long::equals),
-    LESSER_OR_EQUAL((a, b) -> a <= b),
-    GREATER_OR_EQUAL((a, b) -> a >= b);
-
-    private final BiPredicate<Long, Long> PRED;
-
-    ComparisonOperator(BiPredicate<Long, Long> pred) {
-        this.PRED = pred;
-    }
+    GREATER,
+    LESSER,
+    EQUALS,
+    LESSER_OR_EQUAL,
+    GREATER_OR_EQUAL;
 
     public static ComparisonOperator from(String text) {
         return switch (text.toUpperCase(Locale.ROOT)) {
@@ -40,6 +34,28 @@ public enum ComparisonOperator implements ASTNode, BiPredicate<Long, Long>, ToSt
 
     @Override
     public boolean test(Long a, Long b) {
-        return PRED.test(a, b);
+        return test(a.longValue(), b.longValue());
+    }
+
+    public boolean test(long a, long b) {
+        return switch (this) {
+            case GREATER -> a > b;
+            case LESSER -> a < b;
+            case EQUALS -> a == b;
+            case LESSER_OR_EQUAL -> a <= b;
+            case GREATER_OR_EQUAL -> a >= b;
+        };
+    }
+
+    /**
+     * Whether a count that can only grow has already settled {@link #test(long, long)},
+     * so that counting can stop early.
+     */
+    public boolean isDecided(long count, long quantity) {
+        return switch (this) {
+            case GREATER, GREATER_OR_EQUAL -> test(count, quantity);
+            case LESSER, LESSER_OR_EQUAL -> !test(count, quantity);
+            case EQUALS -> count > quantity;
+        };
     }
 }
@@ -33,16 +33,17 @@ public record ForgetStatement(
                     oldInputStatement.resourceLimits(),
                     oldInputStatement.each()
             );
-            context.getProgram().builder().setLocationFromOtherNode(newInputStatement, oldInputStatement);
             if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour simulation) {
+                // only warnings need the location, remembering it on every tick would grow the builder forever
+                context.getProgram().builder().setLocationFromOtherNode(newInputStatement, oldInputStatement);
                 simulation.onInputStatementForgetTransform(context, oldInputStatement, newInputStatement);
             }
             // this could be a set instead of list contains check, but whatever. Should be small
-            oldInputStatement.freeSlotsIf(slot -> labelToForget.contains(slot.label));
+            oldInputStatement.freeSlotsIf(context, slot -> labelToForget.contains(slot.label));
             oldInputStatement.transferSlotsTo(newInputStatement);
 
             if (newLabels.isEmpty()) {
-                oldInputStatement.freeSlots();
+                oldInputStatement.freeSlots(context);
             } else {
                 newInputs.add(newInputStatement);
             }
@@ -1,7 +1,16 @@
 package ca.teamdman.sfml.ast;
 
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+
+import java.util.Set;
+
 public interface IOStatement extends Statement, ToStringPretty {
     LabelAccess labelAccess();
     ResourceLimits resourceLimits();
     boolean each();
+
+    /**
+     * @return the resource types of {@link #resourceLimits()}, resolved once and reused
+     */
+    Set<ResourceType<?, ?, ?>> getReferencedResourceTypes();
 }
@@ -16,25 +16,49 @@ public record IfStatement(
     @Override
     public void tick(ProgramContext context) {
         Predicate<ProgramContext> condition = this.condition;
-        boolean test;
         if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour simulation) {
             condition = ctx -> {
                 int conditionIndex = ctx.getProgram().getConditionIndex(this);
                 if (conditionIndex == -1) {
                     SFM.LOGGER.warn("Condition index not found for {}", this);
                 }
-                return simulation.getTriggerPathCount().testBit(conditionIndex);
+                boolean test = simulation.getTriggerPathCount().testBit(conditionIndex);
+                simulation.pushPathElement(new SimulateExploreAllPathsProgramBehaviour.Branch(this, test));
+                return test;
             };
-            test = condition.test(context);
-            simulation.pushPathElement(new SimulateExploreAllPathsProgramBehaviour.Branch(this, test));
-        } else {
-            test = condition.test(context);
+        }
+        tick(context, condition, trueBlock::tick, falseBlock::tick);
+    }
+
+    /**
+     * Tick the block chosen by the condition.
+     * <p>
+     * The blocks are ticked through the given statements so that the lowered form shares this,
+     * see {@link ProgramLowering}.
+     */
+    public void tick(
+            ProgramContext context,
+            Predicate<ProgramContext> condition,
+            ProgramLowering.LoweredStatement trueBranch,
+            ProgramLowering.LoweredStatement falseBranch
+    ) {
+        // A suspended trigger continues in the branch it already chose
+        if (context.isResumingInto(trueBlock)) {
+            trueBranch.tick(context);
+            return;
+        } else if (context.isResumingInto(falseBlock)) {
+            falseBranch.tick(context);
+            return;
         }
 
-        if (test) {
-            tickTrueBlock(context);
+        if (condition.test(context)) {
+            context.getLogger().debug(x -> x.accept(
+                    LocalizationKeys.LOG_PROGRAM_TICK_IF_STATEMENT_WAS_TRUE.get(this.condition.toStringPretty())));
+            trueBranch.tick(context);
         } else {
-            tickFalseBlock(context);
+            context.getLogger().debug(x -> x.accept(
+                    LocalizationKeys.LOG_PROGRAM_TICK_IF_STATEMENT_WAS_FALSE.get(this.condition.toStringPretty())));
+            falseBranch.tick(context);
         }
     }
 
@@ -57,16 +81,4 @@ public record IfStatement(
     public String toStringCondensed() {
         return condition.toString();
     }
-
-    private void tickFalseBlock(ProgramContext context) {
-        context.getLogger().debug(x -> x.accept(
-                LocalizationKeys.LOG_PROGRAM_TICK_IF_STATEMENT_WAS_FALSE.get(this.condition.toStringPretty())));
-        falseBlock.tick(context);
-    }
-
-    private void tickTrueBlock(ProgramContext context) {
-        context.getLogger().debug(x -> x.accept(
-                LocalizationKeys.LOG_PROGRAM_TICK_IF_STATEMENT_WAS_TRUE.get(this.condition.toStringPretty())));
-        trueBlock.tick(context);
-    }
 }
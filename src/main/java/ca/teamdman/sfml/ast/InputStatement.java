@@ -7,10 +7,10 @@ import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayDeque;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -21,7 +21,14 @@ public final class InputStatement implements IOStatement {
     private final LabelAccess labelAccess;
     private final ResourceLimits resourceLimits;
     private final boolean each;
-    private @Nullable ArrayDeque<LimitedInputSlot<?, ?, ?>> limitedInputSlotsCache = null;
+    // the slots are gathered once and reused by every output until they are freed
+    private final LimitedInputSlotTable gatheredSlots = new LimitedInputSlotTable();
+    private boolean gathered = false;
+    private @Nullable Set<ResourceType<?, ?, ?>> referencedResourceTypes = null;
+    private @Nullable LoweredLabelAccess loweredLabelAccess = null;
+    // one list when not EACH, otherwise one list per capability, reused by every gather
+    private final ArrayList<List<IInputResourceTracker>> inputTrackers = new ArrayList<>();
+    private int inputTrackersInUse = 0;
 
     public InputStatement(
             LabelAccess labelAccess,
@@ -35,6 +42,21 @@ public final class InputStatement implements IOStatement {
 
     @Override
     public void tick(ProgramContext context) {
+        tick(context, null);
+    }
+
+    /**
+     * Shared by the AST and the lowered form, see {@link ProgramLowering}.
+     * <p>
+     * The slots are gathered later by the outputs that need them, so the label access is kept until then.
+     *
+     * @param lowered the label access resolved when the program was lowered, or {@code null} to resolve it on every gather
+     */
+    public void tick(
+            ProgramContext context,
+            @Nullable LoweredLabelAccess lowered
+    ) {
+        loweredLabelAccess = lowered;
         context.addInput(this);
         context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_INPUT_STATEMENT.get(toString())));
 
@@ -44,93 +66,98 @@ public final class InputStatement implements IOStatement {
         }
     }
 
-    @SuppressWarnings({"unchecked"}) // basically impossible to make this method generic safe
+    /**
+     * Visit every slot of this statement, see {@link #getSlots(ProgramContext)}.
+     */
     public void gatherSlots(
             ProgramContext context,
             Consumer<LimitedInputSlot<?, ?, ?>> slotConsumer
     ) {
+        LimitedInputSlotTable slots = getSlots(context);
+        for (int i = 0; i < slots.size(); i++) {
+            slotConsumer.accept(slots.get(i));
+        }
+    }
+
+    /**
+     * Get the slots of this statement, gathering them if they haven't been since they were last freed.
+     */
+    @SuppressWarnings({"unchecked"}) // basically impossible to make this method generic safe
+    public LimitedInputSlotTable getSlots(ProgramContext context) {
         context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS.get(toStringPretty())));
 
         // do we have a cached result?
-        if (limitedInputSlotsCache != null) {
+        if (gathered) {
             // log cache hit
             context.getLogger().trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_CACHE_HIT.get()));
-            // return cached results
-            for (var slot : limitedInputSlotsCache) {
-                slotConsumer.accept(slot);
-            }
-            limitedInputSlotsCache.forEach(slotConsumer);
-            return;
+            return gatheredSlots;
         }
 
         // log cache miss
         context.getLogger().trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_CACHE_MISS.get()));
 
         // prepare cache state
-        limitedInputSlotsCache = new ArrayDeque<>();
-
-        // monkey patch the results acceptor to update the cache before returning results
-        {
-            var original = slotConsumer;
-            slotConsumer = slot -> {
-                limitedInputSlotsCache.add(slot);
-                original.accept(slot);
-            };
+        gathered = true;
+        inputTrackersInUse = 0;
+
+        LoweredLabelAccess access = loweredLabelAccess != null
+                                    ? loweredLabelAccess
+                                    : new LoweredLabelAccess(labelAccess, this::getReferencedResourceTypes);
+
+        // log the resource types being gathered
+        for (var resourceType : access.getResourceTypes()) {
+            context
+                    .getLogger()
+                    .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_FOR_RESOURCE_TYPE.get(
+                            resourceType.displayAsCapabilityClass(),
+                            resourceType.displayAsCapabilityClass()
+                    )));
         }
 
+        // gather slots for each capability found for positions tagged by a provided label
+        // every resource type is gathered in the same pass, see #166
         if (!each) {
             // log not each
             context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_NOT_EACH.get()));
 
             // create a single matcher to be shared by all capabilities
-            List<IInputResourceTracker> inputTrackers = resourceLimits.createInputTrackers();
-            for (var resourceType : resourceLimits.getReferencedResourceTypes()) { // TODO: Fix #166
-                // log gather for resource type
-                context
-                        .getLogger()
-                        .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_FOR_RESOURCE_TYPE.get(
-                                resourceType.displayAsCapabilityClass(),
-                                resourceType.displayAsCapabilityClass()
-                        )));
-
-                // gather slots for each capability found for positions tagged by a provided label
-                Consumer<LimitedInputSlot<?, ?, ?>> finalSlotConsumer = slotConsumer;
-                // TODO: fix #166 forEachCapability advances the round robin when it should be shared between resource types
-                resourceType.forEachCapability(context, labelAccess, (label, pos, direction, cap) -> gatherSlotsForCap(
-                        context,
-                        (ResourceType<Object, Object, Object>) resourceType,
-                        label, pos, direction, cap,
-                        inputTrackers,
-                        finalSlotConsumer
-                ));
-            }
+            List<IInputResourceTracker> inputTrackers = acquireInputTrackers();
+            access.forEachCapability(
+                    context,
+                    (resourceType, label, pos, direction, cap) -> gatherSlotsForCap(
+                            context,
+                            access,
+                            (ResourceType<Object, Object, Object>) resourceType,
+                            label, pos, direction, cap,
+                            inputTrackers
+                    )
+            );
         } else {
             // log yes each
             context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_EACH.get()));
 
-            for (var resourceType : resourceLimits.getReferencedResourceTypes()) {
-                // log gather for resource type
-                context
-                        .getLogger()
-                        .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_FOR_RESOURCE_TYPE.get(
-                                resourceType.displayAsCapabilityClass(),
-                                resourceType.displayAsCapabilityClass()
-                        )));
-
-                // gather slots for each capability found for positions tagged by a provided label
-                Consumer<LimitedInputSlot<?, ?, ?>> finalSlotConsumer = slotConsumer;
-                resourceType.forEachCapability(context, labelAccess, (label, pos, direction, cap) -> {
-                    List<IInputResourceTracker> inputTrackers = resourceLimits.createInputTrackers();
-                    gatherSlotsForCap(
-                            context,
-                            (ResourceType<Object, Object, Object>) resourceType,
-                            label, pos, direction, cap,
-                            inputTrackers,
-                            finalSlotConsumer
-                    );
-                });
-            }
+            access.forEachCapability(
+                    context,
+                    (resourceType, label, pos, direction, cap) -> {
+                        List<IInputResourceTracker> inputTrackers = acquireInputTrackers();
+                        gatherSlotsForCap(
+                                context,
+                                access,
+                                (ResourceType<Object, Object, Object>) resourceType,
+                                label, pos, direction, cap,
+                                inputTrackers
+                        );
+                    }
+            );
         }
+        return gatheredSlots;
+    }
+
+    /**
+     * @return the slots gathered by the last call to {@link #getSlots(ProgramContext)}, empty if they were freed since
+     */
+    public LimitedInputSlotTable getGatheredSlots() {
+        return gatheredSlots;
     }
 
     @Override
@@ -177,6 +204,14 @@ public final class InputStatement implements IOStatement {
         return each;
     }
 
+    @Override
+    public Set<ResourceType<?, ?, ?>> getReferencedResourceTypes() {
+        if (referencedResourceTypes == null) {
+            referencedResourceTypes = resourceLimits.getReferencedResourceTypes();
+        }
+        return referencedResourceTypes;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -199,48 +234,67 @@ public final class InputStatement implements IOStatement {
      * This was separated from {@link OutputStatement#tick(ProgramContext)} because we need input statements
      * to keep their counts when used by multiple output statements.
      */
-    public void freeSlots() {
-        if (limitedInputSlotsCache != null) {
-            LimitedInputSlotObjectPool.release(limitedInputSlotsCache);
-            limitedInputSlotsCache = null;
+    public void freeSlots(ProgramContext context) {
+        gatheredSlots.release(context.getInputSlotPool());
+        gathered = false;
+    }
+
+    /**
+     * The world may have changed since the slots were gathered, make them check their contents again.
+     */
+    public void invalidateSlotCaches() {
+        for (int i = 0; i < gatheredSlots.size(); i++) {
+            gatheredSlots.get(i).invalidateExtractSimulateCache();
         }
     }
 
-    public void freeSlotsIf(Predicate<LimitedInputSlot<?, ?, ?>> condition) {
-        if (limitedInputSlotsCache != null) {
-            Iterator<LimitedInputSlot<?, ?, ?>> iterator = limitedInputSlotsCache.iterator();
-            while (iterator.hasNext()) {
-                LimitedInputSlot<?, ?, ?> slot = iterator.next();
-                if (condition.test(slot)) {
-                    iterator.remove();
-                    LimitedInputSlotObjectPool.release(slot);
-                }
-            }
-            if (limitedInputSlotsCache.isEmpty()) {
-                limitedInputSlotsCache = null;
+    public void freeSlotsIf(
+            ProgramContext context,
+            Predicate<LimitedInputSlot<?, ?, ?>> condition
+    ) {
+        if (gathered) {
+            gatheredSlots.releaseIf(context.getInputSlotPool(), condition);
+            if (gatheredSlots.isEmpty()) {
+                gathered = false;
             }
         }
     }
 
     public void transferSlotsTo(InputStatement other) {
-        if (limitedInputSlotsCache != null) {
-            if (other.limitedInputSlotsCache == null) {
-                other.limitedInputSlotsCache = new ArrayDeque<>();
-            }
-            other.limitedInputSlotsCache.addAll(limitedInputSlotsCache);
+        if (gathered) {
+            other.gatheredSlots.takeAll(gatheredSlots);
+            other.gathered = true;
+        }
+        gathered = false;
+        // the transferred slots keep using our trackers, so they must not be reset by our next gather
+        inputTrackers.clear();
+    }
+
+    /**
+     * Get the next list of trackers for this gather, reusing the ones from previous gathers.
+     * <p>
+     * Only called on a cache miss, at which point the slots using the trackers have been released.
+     */
+    private List<IInputResourceTracker> acquireInputTrackers() {
+        if (inputTrackersInUse == inputTrackers.size()) {
+            inputTrackers.add(resourceLimits.createInputTrackers());
+        }
+        List<IInputResourceTracker> trackers = inputTrackers.get(inputTrackersInUse++);
+        for (IInputResourceTracker tracker : trackers) {
+            tracker.reset();
         }
-        limitedInputSlotsCache = null;
+        return trackers;
     }
 
     private <STACK, ITEM, CAP> void gatherSlotsForCap(
             ProgramContext context,
+            LoweredLabelAccess access,
             ResourceType<STACK, ITEM, CAP> type,
             Label label,
             BlockPos pos,
             Direction direction,
             CAP capability,
-            List<IInputResourceTracker> trackers,
-            Consumer<LimitedInputSlot<?, ?, ?>> acceptor
+            List<IInputResourceTracker> trackers
     ) {
         context
                 .getLogger()
@@ -248,8 +302,8 @@ public final class InputStatement implements IOStatement {
                         labelAccess.slots())));
         for (int slot = 0; slot < type.getSlots(capability); slot++) {
             int finalSlot = slot;
-            if (labelAccess.slots().contains(slot)) {
-                STACK stack = type.getStackInSlot(capability, slot);
+            if (access.containsSlot(slot)) {
+                STACK stack = context.getInventorySnapshot().getStackInSlot(type, pos, direction, capability, slot);
                 if (shouldCreateSlot(type, stack)) {
                     for (IInputResourceTracker tracker : trackers) {
                         if (tracker.matchesCapabilityType(capability) && tracker.matchesStack(stack)) {
@@ -260,10 +314,9 @@ public final class InputStatement implements IOStatement {
                                             stack,
                                             tracker.toString()
                                     )));
-                            acceptor.accept(LimitedInputSlotObjectPool.acquire(
+                            gatheredSlots.add(context.getInputSlotPool().acquire(
                                     label, pos, direction, slot, capability,
                                     tracker,
-                                    stack,
                                     type
                             ));
                         }
@@ -0,0 +1,131 @@
+package ca.teamdman.sfml.ast;
+
+import ca.teamdman.sfm.common.program.LabelAccessPositions;
+import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import ca.teamdman.sfm.common.program.ProgramContext;
+import ca.teamdman.sfm.common.program.TypedCapabilityConsumer;
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A {@link LabelAccess} and the resource types it is used with, resolved into arrays once.
+ * <p>
+ * Walking the AST form asks the {@link DirectionQualifier} for a stream at every position,
+ * iterates the hash set of resource types and hashes the list of labels to find the positions.
+ * Lowered statements keep one of these instead, see {@link ProgramLowering}.
+ * The AST form builds a new one every time it runs, so both forms share the same code.
+ * <p>
+ * The resource types are resolved the first time they are needed, the registries may not be loaded when a program is built.
+ * The positions depend on the labels on the disk, so they are kept for the last {@link LabelPositionHolder} seen.
+ * A new holder is made whenever the labels change.
+ */
+public final class LoweredLabelAccess {
+    private final LabelAccess LABEL_ACCESS;
+    private final Direction[] DIRECTIONS;
+    private final long[] SLOT_STARTS;
+    private final long[] SLOT_ENDS;
+    private final boolean ALL_SLOTS;
+    private final Supplier<Set<ResourceType<?, ?, ?>>> RESOURCE_TYPES_SUPPLIER;
+    // resolved on first use, see #getResourceTypes()
+    private ResourceType<?, ?, ?>[] resourceTypes = null;
+    private @Nullable LabelPositionHolder positionsHolder = null;
+    private @Nullable LabelAccessPositions positions = null;
+
+    public LoweredLabelAccess(
+            LabelAccess labelAccess,
+            Supplier<Set<ResourceType<?, ?, ?>>> resourceTypes
+    ) {
+        this.LABEL_ACCESS = labelAccess;
+        this.RESOURCE_TYPES_SUPPLIER = resourceTypes;
+        // the qualifier adds the null direction itself when no side was given
+        this.DIRECTIONS = labelAccess.directions().stream().toArray(Direction[]::new);
+        NumberRange[] ranges = labelAccess.slots().ranges();
+        this.SLOT_STARTS = new long[ranges.length];
+        this.SLOT_ENDS = new long[ranges.length];
+        boolean allSlots = false;
+        for (int i = 0; i < ranges.length; i++) {
+            SLOT_STARTS[i] = ranges[i].start();
+            SLOT_ENDS[i] = ranges[i].end();
+            allSlots |= ranges[i].start() <= 0 && ranges[i].end() >= Integer.MAX_VALUE;
+        }
+        this.ALL_SLOTS = allSlots;
+    }
+
+    public LabelAccess labelAccess() {
+        return LABEL_ACCESS;
+    }
+
+    public Direction[] getDirections() {
+        return DIRECTIONS;
+    }
+
+    /**
+     * @return the resource types, which must not be modified
+     */
+    public ResourceType<?, ?, ?>[] getResourceTypes() {
+        if (resourceTypes == null) {
+            resourceTypes = RESOURCE_TYPES_SUPPLIER.get().toArray(new ResourceType<?, ?, ?>[0]);
+        }
+        return resourceTypes;
+    }
+
+    /**
+     * Same as {@link NumberRangeSet#contains(int)} for the slots of the label access.
+     */
+    public boolean containsSlot(int slot) {
+        if (ALL_SLOTS) return true;
+        for (int i = 0; i < SLOT_STARTS.length; i++) {
+            if (slot >= SLOT_STARTS[i] && slot <= SLOT_ENDS[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link ProgramContext#getLabelAccessPositions(LabelAccess)}, without the lookup while the labels are unchanged.
+     */
+    public LabelAccessPositions getPositions(ProgramContext context) {
+        LabelPositionHolder holder = context.getLabelPositionHolder();
+        if (positions == null || positionsHolder != holder) {
+            positions = context.getLabelAccessPositions(LABEL_ACCESS);
+            positionsHolder = holder;
+        }
+        return positions;
+    }
+
+    /**
+     * Visit the capabilities of every resource type in a single pass over the labelled positions.
+     * <p>
+     * Each position and direction is visited once and asked for the capability of every resource type,
+     * instead of walking the labels once per resource type.
+     * Round robin only advances once, so every resource type sees the same positions.
+     */
+    public void forEachCapability(
+            ProgramContext context,
+            TypedCapabilityConsumer consumer
+    ) {
+        ResourceType<?, ?, ?>[] types = getResourceTypes();
+        if (types.length == 0) return;
+        LabelAccessPositions positions = getPositions(context);
+        int selection = positions.select(LABEL_ACCESS.roundRobin());
+        int end = positions.getSelectionEnd(selection);
+        for (int i = positions.getSelectionStart(selection); i < end; i++) {
+            Label label = positions.getLabel(i);
+            BlockPos pos = positions.getPosition(i);
+            for (Direction direction : DIRECTIONS) {
+                for (ResourceType<?, ?, ?> resourceType : types) {
+                    Object cap = resourceType.getCapability(context, pos, direction);
+                    if (cap != null) {
+                        consumer.accept(resourceType, label, pos, direction, cap);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -7,10 +7,12 @@ import ca.teamdman.sfm.common.registry.SFMResourceTypes;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -21,8 +23,10 @@ public class OutputStatement implements IOStatement {
     private final ResourceLimits resourceLimits;
     private final boolean each;
 
-    private int lastInputCapacity = 32;
-    private int lastOutputCapacity = 32;
+    private @Nullable Set<ResourceType<?, ?, ?>> referencedResourceTypes = null;
+    // one list when not EACH, otherwise one list per capability, reused by every gather
+    private final ArrayList<List<IOutputResourceTracker>> outputTrackers = new ArrayList<>();
+    private int outputTrackersInUse = 0;
 
     public OutputStatement(
             LabelAccess labelAccess,
@@ -36,26 +40,54 @@ public class OutputStatement implements IOStatement {
 
     /**
      * Juicy method function here.
-     * Given two slots, move as much as possible from one to the other.
+     * Given an input slot and a run of output slots, move as much as possible from one to the others.
+     * <p>
+     * The output slots must share a handler and a tracker so they can be inserted into together,
+     * see {@link ResourceType#insert(Object, int[], int, int, Object, boolean)}.
+     * This keeps the number of calls to the handler bounded by the number of stacks moved instead of the number of slots.
      *
-     * @param <STACK>     the stack type
-     * @param <ITEM>      the item type
-     * @param <CAP>       the capability type
-     * @param context     program execution context
-     * @param source      The slot to pull from
-     * @param destination the slot to push to
+     * @param <STACK>           the stack type
+     * @param <ITEM>            the item type
+     * @param <CAP>             the capability type
+     * @param context           program execution context
+     * @param source            The slot to pull from
+     * @param destination       the slot standing for the handler and tracker shared by the destinations
+     * @param destinations      the table holding the slots to push to
+     * @param from              the first destination in the table, inclusive
+     * @param to                the last destination in the table, exclusive
      */
     public static <STACK, ITEM, CAP> void moveTo(
             ProgramContext context,
             LimitedInputSlot<STACK, ITEM, CAP> source,
-            LimitedOutputSlot<STACK, ITEM, CAP> destination
+            LimitedOutputSlot<STACK, ITEM, CAP> destination,
+            LimitedOutputSlotTable destinations,
+            int from,
+            int to
+    ) {
+        // each slot pair used to get at most one stack, keep that bound for the run as a whole
+        for (int i = from; i < to; i++) {
+            if (!moveOnce(context, source, destination, destinations, from, to)) break;
+            if (source.isDone()) break;
+        }
+    }
+
+    /**
+     * @return {@code true} if a full stack was moved and more might follow
+     */
+    private static <STACK, ITEM, CAP> boolean moveOnce(
+            ProgramContext context,
+            LimitedInputSlot<STACK, ITEM, CAP> source,
+            LimitedOutputSlot<STACK, ITEM, CAP> destination,
+            LimitedOutputSlotTable destinations,
+            int from,
+            int to
     ) {
         context.getLogger().trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_MOVE_TO_BEGIN.get(source, destination)));
         // always ensure types match
         // items and fluids are incompatible, etc
         if (!source.type.equals(destination.type)) {
             context.getLogger().trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_MOVE_TO_TYPE_MISMATCH.get()));
-            return;
+            return false;
         }
         ResourceType<STACK, ITEM, CAP> resourceType = source.type;
 
@@ -68,10 +100,17 @@ public class OutputStatement implements IOStatement {
             context
                     .getLogger()
                     .trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_MOVE_TO_DESTINATION_TRACKER_REJECT.get()));
-            return;
+            return false;
         }
         // find out how much we can fit
-        STACK potentialRemainder = destination.insert(potential, true);
+        STACK potentialRemainder = resourceType.insert(
+                destination.handler,
+                destinations.getSlotIndices(),
+                from,
+                to,
+                potential,
+                true
+        );
 
         // how many can we move before accounting for limits
         long toMove = source.type.getAmountDifference(potential, potentialRemainder);
@@ -82,7 +121,7 @@ public class OutputStatement implements IOStatement {
                             potentialRemainder,
                             potential
                     )));
-            return;
+            return false;
         }
 
         // how many have we promised to RETAIN in this slot
@@ -123,7 +162,7 @@ public class OutputStatement implements IOStatement {
                     .getLogger()
                     .trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_MOVE_TO_RETENTION_OBLIGATION_NO_MOVE.get()));
             source.setDone();
-            return;
+            return false;
         }
 
         // apply output constraints
@@ -136,6 +175,7 @@ public class OutputStatement implements IOStatement {
 
         // apply resource constraints
         long maxStackSize = resourceType.getMaxStackSize(potential); // this is cap-agnostic, so source/dest doesn't matter
+        boolean limitedByStackSize = toMove > maxStackSize;
         toMove = Math.min(toMove, maxStackSize);
 
         long logToMove = toMove;
@@ -149,22 +189,37 @@ public class OutputStatement implements IOStatement {
                 )));
         if (toMove <= 0) {
             context.getLogger().trace(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_MOVE_TO_ZERO_TO_MOVE.get()));
-            return;
+            return false;
         }
 
         // extract item for real
         STACK extracted = source.extract(toMove);
+        context.getInventorySnapshot().invalidate(source.pos);
         context
                 .getLogger()
                 .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_MOVE_TO_EXTRACTED.get(extracted, source)));
 
         // insert item for real
-        STACK extractedRemainder = destination.insert(extracted, false);
+        STACK extractedRemainder = resourceType.insert(
+                destination.handler,
+                destinations.getSlotIndices(),
+                from,
+                to,
+                extracted,
+                false
+        );
+        for (int i = from; i < to; i++) {
+            destinations.invalidateStack(i);
+        }
+        context.getInventorySnapshot().invalidate(destination.pos);
 
         // track transfer amounts
         var moved = resourceType.getAmountDifference(extracted, extractedRemainder);
         source.tracker.trackTransfer(resourceType, extracted, moved);
         destination.tracker.trackTransfer(resourceType, extracted, moved);
+        if (moved > 0) {
+            context.setDidMove(true);
+        }
 
         // log
         context
@@ -202,15 +257,28 @@ public class OutputStatement implements IOStatement {
                     extractedRemainder
             );
         }
+        return limitedByStackSize && moved == toMove;
     }
 
     /**
-     * Input slots are freed when the input statement falls out of scope, see: {@link InputStatement#freeSlots()}
+     * Input slots are freed when the input statement falls out of scope, see: {@link InputStatement#freeSlots(ProgramContext)}
      * <p/>
      * Output slots are freed immediately once done in this method.
      */
     @Override
     public void tick(ProgramContext context) {
+        tick(context, null);
+    }
+
+    /**
+     * Shared by the AST and the lowered form, see {@link ProgramLowering}.
+     *
+     * @param lowered the label access resolved when the program was lowered, or {@code null} to resolve it now
+     */
+    public void tick(
+            ProgramContext context,
+            @Nullable LoweredLabelAccess lowered
+    ) {
         // Log the output statement
         context
                 .getLogger()
@@ -227,23 +295,20 @@ public class OutputStatement implements IOStatement {
              INPUT SLOTS
            ################ */
 
-        // gather the input slots from all the input statements, +27 to hopefully avoid resizing
-        //noinspection rawtypes
-        ArrayDeque<LimitedInputSlot> inputSlots = new ArrayDeque<>(lastInputCapacity + 27);
+        // gather the input slots from all the input statements, they are kept by the statements and walked in place
+        int inputSlotCount = 0;
         for (var inputStatement : context.getInputs()) {
-            inputStatement.gatherSlots(context, inputSlots::add);
+            inputSlotCount += inputStatement.getSlots(context).size();
         }
 
-        // Update allocation hint
-        lastInputCapacity = inputSlots.size();
-
         // Log the number of input slots
+        int finalInputSlotCount = inputSlotCount;
         context
                 .getLogger()
-                .info(x -> x.accept(LOG_PROGRAM_TICK_OUTPUT_STATEMENT_DISCOVERED_INPUT_SLOT_COUNT.get(inputSlots.size())));
+                .info(x -> x.accept(LOG_PROGRAM_TICK_OUTPUT_STATEMENT_DISCOVERED_INPUT_SLOT_COUNT.get(finalInputSlotCount)));
 
         // Short-circuit if we have nothing to move
-        if (inputSlots.isEmpty()) {
+        if (inputSlotCount == 0) {
             // Log the short-circuit
             context
                     .getLogger()
@@ -257,13 +322,13 @@ public class OutputStatement implements IOStatement {
              OUTPUT SLOTS
            ################ */
 
-        // collect the output slots, +27 to hopefully avoid resizing
-        //noinspection rawtypes
-        ArrayDeque<LimitedOutputSlot> outputSlots = new ArrayDeque<>(lastOutputCapacity + 27);
-        gatherSlots(context, outputSlots::add);
-
-        // Update allocation hint
-        lastOutputCapacity = outputSlots.size();
+        // collect the output slots, bucketed by what they can accept
+        LimitedOutputSlotIndex outputSlots = context.getOutputSlotIndex();
+        gatherSlots(
+                context,
+                lowered != null ? lowered : new LoweredLabelAccess(labelAccess, this::getReferencedResourceTypes),
+                outputSlots::add
+        );
 
         // Log the number of output slots
         context
@@ -277,9 +342,6 @@ public class OutputStatement implements IOStatement {
                     .getLogger()
                     .debug(x -> x.accept(LOG_PROGRAM_TICK_OUTPUT_STATEMENT_SHORT_CIRCUIT_NO_OUTPUT_SLOTS.get()));
 
-            // Free the output slots (we acquired no slots but the assertion is still valid)
-            LimitedOutputSlotObjectPool.release(outputSlots);
-
             // Stop processing
             return;
         }
@@ -290,35 +352,22 @@ public class OutputStatement implements IOStatement {
            ################ */
 
         // try and move resources from input slots to output slots
-        for (var inputSlot : inputSlots) {
-            // Get an input slot
-            if (inputSlot.isDone()) {
-                continue;
-            }
-
-            // Try to move into every output slot
-            var outputSlotIter = outputSlots.iterator();
-            while (outputSlotIter.hasNext()) {
-                // Get an output slot
-                var outputSlot = outputSlotIter.next();
-                if (outputSlot.isDone()) {
-                    // Make sure we don't process this slot again
-                    outputSlotIter.remove(); // IMPORTANT!!!!! DONT FREE SLOTS TWICE WHEN FREEING REMAINDER BELOW
-                    // Release it
-                    LimitedOutputSlotObjectPool.release(outputSlot);
-                    // Try again
+        moveInputs:
+        for (var inputStatement : context.getInputs()) {
+            LimitedInputSlotTable inputSlots = inputStatement.getGatheredSlots();
+            for (int i = 0; i < inputSlots.size(); i++) {
+                // Get an input slot
+                var inputSlot = inputSlots.get(i);
+                if (inputSlot.isDone()) {
                     continue;
                 }
 
-                // Attempt a move
-                //noinspection unchecked
-                moveTo(context, inputSlot, outputSlot);
+                // Try to move into every output slot that could accept it
+                outputSlots.moveFrom(context, inputSlot);
 
-                // Continue to the next input slot when the current one is finished
-                if (inputSlot.isDone()) break;
+                // Stop processing when no output slots are left
+                if (outputSlots.isEmpty()) break moveInputs;
             }
-            // Stop processing when no output slots are left
-            if (outputSlots.isEmpty()) break;
         }
 
 
@@ -327,7 +376,7 @@ public class OutputStatement implements IOStatement {
            ################ */
 
         // Release remaining slot objects
-        LimitedOutputSlotObjectPool.release(outputSlots);
+        outputSlots.release();
     }
 
     /**
@@ -338,51 +387,42 @@ public class OutputStatement implements IOStatement {
      * <p>
      * We want collect the slots from all the labelled blocks.
      */
-    @SuppressWarnings({"rawtypes", "unchecked"}) // basically impossible to make this method generic safe
     public void gatherSlots(
             ProgramContext context,
             Consumer<LimitedOutputSlot<?, ?, ?>> slotConsumer
+    ) {
+        gatherSlots(context, new LoweredLabelAccess(labelAccess, this::getReferencedResourceTypes), slotConsumer);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"}) // basically impossible to make this method generic safe
+    private void gatherSlots(
+            ProgramContext context,
+            LoweredLabelAccess access,
+            Consumer<LimitedOutputSlot<?, ?, ?>> slotConsumer
     ) {
         context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS.get(toStringPretty())));
+        // the slots from the previous gather were released at the end of the previous tick
+        outputTrackersInUse = 0;
+
+        for (var resourceType : access.getResourceTypes()) {
+            context
+                    .getLogger()
+                    .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_FOR_RESOURCE_TYPE.get(
+                            resourceType.displayAsCapabilityClass(),
+                            resourceType.displayAsCapabilityClass()
+                    )));
+        }
 
+        // every resource type is gathered in the same pass, see #166
         if (!each) {
             context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_NOT_EACH.get()));
-            // create a single list of trackers to be shared between all limited slots
-            List<IOutputResourceTracker> outputTracker = resourceLimits.createOutputTrackers();
-            for (var resourceType : resourceLimits.getReferencedResourceTypes()) {
-                context
-                        .getLogger()
-                        .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_FOR_RESOURCE_TYPE.get(
-                                resourceType.displayAsCapabilityClass(),
-                                resourceType.displayAsCapabilityClass()
-                        )));
-                resourceType.forEachCapability(context, labelAccess, (
-                        (label, pos, direction, cap) -> gatherSlotsForCap(
-                                context,
-                                (ResourceType<Object, Object, Object>) resourceType,
-                                label,
-                                pos,
-                                direction,
-                                cap,
-                                outputTracker,
-                                slotConsumer
-                        )
-                ));
-            }
-        } else {
-            context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_EACH.get()));
-            for (var resourceType : resourceLimits.getReferencedResourceTypes()) {
-                context
-                        .getLogger()
-                        .debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_FOR_RESOURCE_TYPE.get(
-                                resourceType.displayAsCapabilityClass(),
-                                resourceType.displayAsCapabilityClass()
-                        )));
-                resourceType.forEachCapability(context, labelAccess, (label, pos, direction, cap) -> {
-                    // create a new list of trackers for each limited slot
-                    List<IOutputResourceTracker> outputTracker = resourceLimits.createOutputTrackers();
-                    gatherSlotsForCap(
+            // use a single list of trackers to be shared between all limited slots
+            List<IOutputResourceTracker> outputTracker = acquireOutputTrackers();
+            access.forEachCapability(
+                    context,
+                    (resourceType, label, pos, direction, cap) -> gatherSlotsForCap(
                             context,
+                            access,
                             (ResourceType<Object, Object, Object>) resourceType,
                             label,
                             pos,
@@ -390,12 +430,45 @@ public class OutputStatement implements IOStatement {
                             cap,
                             outputTracker,
                             slotConsumer
-                    );
-                });
-            }
+                    )
+            );
+        } else {
+            context.getLogger().debug(x -> x.accept(LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_EACH.get()));
+            access.forEachCapability(
+                    context,
+                    (resourceType, label, pos, direction, cap) -> {
+                        // use a separate list of trackers for each capability
+                        List<IOutputResourceTracker> outputTracker = acquireOutputTrackers();
+                        gatherSlotsForCap(
+                                context,
+                                access,
+                                (ResourceType<Object, Object, Object>) resourceType,
+                                label,
+                                pos,
+                                direction,
+                                cap,
+                                outputTracker,
+                                slotConsumer
+                        );
+                    }
+            );
         }
     }
 
+    /**
+     * Get the next list of trackers for this gather, reusing the ones from previous gathers.
+     */
+    private List<IOutputResourceTracker> acquireOutputTrackers() {
+        if (outputTrackersInUse == outputTrackers.size()) {
+            outputTrackers.add(resourceLimits.createOutputTrackers());
+        }
+        List<IOutputResourceTracker> trackers = outputTrackers.get(outputTrackersInUse++);
+        for (IOutputResourceTracker tracker : trackers) {
+            tracker.reset();
+        }
+        return trackers;
+    }
+
     @Override
     public LabelAccess labelAccess() {
         return labelAccess;
@@ -411,6 +484,14 @@ public class OutputStatement implements IOStatement {
         return each;
     }
 
+    @Override
+    public Set<ResourceType<?, ?, ?>> getReferencedResourceTypes() {
+        if (referencedResourceTypes == null) {
+            referencedResourceTypes = resourceLimits.getReferencedResourceTypes();
+        }
+        return referencedResourceTypes;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -458,6 +539,7 @@ public class OutputStatement implements IOStatement {
 
     private <STACK, ITEM, CAP> void gatherSlotsForCap(
             ProgramContext context,
+            LoweredLabelAccess access,
             ResourceType<STACK, ITEM, CAP> type,
             Label label,
             BlockPos pos,
@@ -471,8 +553,8 @@ public class OutputStatement implements IOStatement {
                 .debug(x -> x.accept(LocalizationKeys.LOG_PROGRAM_TICK_IO_STATEMENT_GATHER_SLOTS_RANGE.get(labelAccess.slots())));
         for (int slot = 0; slot < type.getSlots(capability); slot++) {
             int finalSlot = slot;
-            if (labelAccess.slots().contains(slot)) {
-                STACK stack = type.getStackInSlot(capability, slot);
+            if (access.containsSlot(slot)) {
+                STACK stack = context.getInventorySnapshot().getStackInSlot(type, pos, direction, capability, slot);
                 boolean shouldCreateSlot = shouldCreateSlot(type, capability, stack, slot);
                 for (IOutputResourceTracker tracker : trackers) {
                     if (tracker.matchesCapabilityType(capability)) {
@@ -487,7 +569,7 @@ public class OutputStatement implements IOStatement {
                                             stack,
                                             tracker.toString()
                                     )));
-                            acceptor.accept(LimitedOutputSlotObjectPool.acquire(
+                            acceptor.accept(context.getOutputSlotPool().acquire(
                                     label,
                                     pos,
                                     direction,
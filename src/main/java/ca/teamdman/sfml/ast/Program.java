@@ -9,6 +9,7 @@ import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import ca.teamdman.sfm.common.util.SFMUtils;
 import ca.teamdman.sfml.SFMLLexer;
 import ca.teamdman.sfml.SFMLParser;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import net.minecraft.ResourceLocationException;
 import net.minecraft.network.chat.contents.TranslatableContents;
 import net.minecraft.server.level.ServerPlayer;
@@ -32,7 +33,8 @@ public record Program(
         String name,
         List<Trigger> triggers,
         Set<String> referencedLabels,
-        Set<ResourceIdentifier<?, ?, ?>> referencedResources
+        Set<ResourceIdentifier<?, ?, ?>> referencedResources,
+        Map<Trigger, ProgramLowering.LoweredStatement> loweredTriggers
 ) implements Statement {
     /** 
      * This comes from {@link java.io.DataOutputStream#writeUTF(String, DataOutput)}
@@ -45,35 +47,50 @@ public record Program(
                                                  - 8; // block pos
     public static final int MAX_LABEL_LENGTH = 256;
 
+    /**
+     * Optimizes and lowers the triggers once while the program is built, see {@link ProgramOptimizer} and {@link ProgramLowering}.
+     * <p>
+     * The lowered triggers are not updated if the AST is modified afterwards,
+     * which only happens to the copies used for inspections and those are only ever simulated.
+     */
+    public Program(
+            ASTBuilder builder,
+            String name,
+            List<Trigger> triggers,
+            Set<String> referencedLabels,
+            Set<ResourceIdentifier<?, ?, ?>> referencedResources
+    ) {
+        this(builder, name, triggers, referencedLabels, referencedResources, lowerTriggers(builder, triggers));
+    }
+
+    private static Map<Trigger, ProgramLowering.LoweredStatement> lowerTriggers(
+            ASTBuilder builder,
+            List<Trigger> triggers
+    ) {
+        Reference2ObjectOpenHashMap<Trigger, ProgramLowering.LoweredStatement> rtn = new Reference2ObjectOpenHashMap<>(
+                triggers.size());
+        for (Trigger trigger : triggers) {
+            rtn.put(trigger, ProgramLowering.lower(ProgramOptimizer.optimize(builder, trigger)));
+        }
+        return rtn;
+    }
+
     public static void compile(
             String programString,
             Consumer<Program> onSuccess,
             Consumer<List<TranslatableContents>> onFailure
     ) {
-        SFMLLexer lexer = new SFMLLexer(CharStreams.fromString(programString));
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        SFMLParser parser = new SFMLParser(tokens);
-        ASTBuilder builder = new ASTBuilder();
-
-        // set up error capturing
-        lexer.removeErrorListeners();
-        parser.removeErrorListeners();
+        // initial parse, shared between copies of the same program
+        ProgramCompileCache.ParseResult parsed = ProgramCompileCache.getOrParse(programString, Program::parse);
         List<TranslatableContents> errors = new ArrayList<>();
-        List<String> buildErrors = new ArrayList<>();
-        ListErrorListener listener = new ListErrorListener(buildErrors);
-        lexer.addErrorListener(listener);
-        parser.addErrorListener(listener);
-
-        // initial parse
-        SFMLParser.ProgramContext context = parser.program();
-        buildErrors.stream().map(LocalizationKeys.PROGRAM_ERROR_LITERAL::get).forEach(errors::add);
+        parsed.errors().stream().map(LocalizationKeys.PROGRAM_ERROR_LITERAL::get).forEach(errors::add);
 
-
-        // build AST
+        // build AST, a fresh one each time since it holds per-manager state
+        ASTBuilder builder = new ASTBuilder();
         Program program = null;
         if (errors.isEmpty()) {
             try {
-                program = builder.visitProgram(context);
+                program = builder.visitProgram(parsed.tree());
                 // make sure all referenced resources exist now during compilation instead of waiting for the program to tick
 
                 for (ResourceIdentifier<?, ?, ?> referencedResource : program.referencedResources) {
@@ -123,13 +140,31 @@ public record Program(
         }
     }
 
+    private static ProgramCompileCache.ParseResult parse(String programString) {
+        SFMLLexer lexer = new SFMLLexer(CharStreams.fromString(programString));
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        SFMLParser parser = new SFMLParser(tokens);
+
+        // set up error capturing
+        lexer.removeErrorListeners();
+        parser.removeErrorListeners();
+        List<String> buildErrors = new ArrayList<>();
+        ListErrorListener listener = new ListErrorListener(buildErrors);
+        lexer.addErrorListener(listener);
+        parser.addErrorListener(listener);
+
+        SFMLParser.ProgramContext context = parser.program();
+        return new ProgramCompileCache.ParseResult(programString, context, List.copyOf(buildErrors));
+    }
+
     /**
-     * Create a context and tick the program.
+     * Prepare the manager's execution context and tick the program.
      *
      * @return {@code true} if a trigger entered its body
      */
     public boolean tick(ManagerBlockEntity manager) {
-        var context = new ProgramContext(this, manager, new DefaultProgramBehaviour());
+        var context = manager.getProgramContext(this);
+        context.reset();
 
         // log if there are unprocessed redstone pulses
         int unprocessedRedstonePulseCount = manager.getUnprocessedRedstonePulseCount();
@@ -139,9 +174,13 @@ public record Program(
         }
 
 
+        boolean wasSuspended = context.getSuspendedTrigger() != null;
         tick(context);
 
-        manager.clearRedstonePulseQueue();
+        // keep the pulses for later if the manager was busy with a suspended trigger the whole tick
+        if (!wasSuspended || context.getSuspendedTrigger() == null) {
+            manager.clearRedstonePulseQueue();
+        }
 
         return context.didSomething();
     }
@@ -154,69 +193,165 @@ public record Program(
 
     @Override
     public void tick(ProgramContext context) {
-        LimitedInputSlotObjectPool.checkInvariant();
-        LimitedOutputSlotObjectPool.checkInvariant();
+        // simulations don't release every slot they gather
+        boolean usesPools = context.getBehaviour() instanceof DefaultProgramBehaviour;
+        if (usesPools) context.checkSlotPoolInvariants();
+
+        // Continue a trigger that ran out of time on a previous tick before anything else
+        Trigger suspendedTrigger = context.getSuspendedTrigger();
+        if (suspendedTrigger != null) {
+            tickTrigger(context, suspendedTrigger);
+            if (context.getSuspendedTrigger() != null) {
+                // still busy, other triggers would disturb the slots it is holding
+                return;
+            }
+        }
 
-        for (Trigger trigger : triggers) {
+        // indexed loop to avoid allocating an iterator on idle ticks
+        //noinspection ForLoopReplaceableByForEach
+        for (int triggerIndex = 0; triggerIndex < triggers.size(); triggerIndex++) {
+            Trigger trigger = triggers.get(triggerIndex);
             // Only process triggers that should tick
             if (!trigger.shouldTick(context)) {
                 continue;
             }
 
-            // Set flag and log on first trigger
-            if (!context.didSomething()) {
-                context.setDidSomething(true);
-                context.getLogger().trace(getTraceLogWriter(context));
-                context.getLogger().debug(debug -> debug.accept(LocalizationKeys.LOG_PROGRAM_TICK.get()));
+            // Defer triggers that don't fit in this tick's time budget
+            if (context.getBehaviour() instanceof DefaultProgramBehaviour) {
+                if (ProgramTickBudget.shouldDefer(trigger)) {
+                    context.getManager().deferTrigger(trigger);
+                    continue;
+                }
+                // running now catches up on an earlier deferral of the same trigger
+                context.getManager().forgetDeferredTrigger(trigger);
             }
 
-            // Log pretty triggers
-            if (triggers instanceof ToStringCondensed ss) {
-                context
-                        .getLogger()
-                        .debug(x -> x.accept(LocalizationKeys.LOG_PROGRAM_TICK_TRIGGER_STATEMENT.get(
-                                ss.toStringCondensed())));
+            tickTrigger(context, trigger);
+
+            // A trigger ran out of time, the rest have to wait
+            if (context.getSuspendedTrigger() != null) {
+                return;
             }
+        }
 
-            // Start stopwatch
-            long start = System.nanoTime();
-
-            // Perform tick
-            if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour simulation) {
-                int maxConditionCount = SFMConfig.getOrDefault(SFMConfig.COMMON.maxIfStatementsInTriggerBeforeSimulationIsntAllowed);
-                int conditionCount = Math.min(trigger.getConditionCount(), maxConditionCount);
-                int numPossibleStates = (int) Math.max(1, Math.pow(2, conditionCount));
-                for (int i = 0; i < numPossibleStates; i++) {
-                    ProgramContext forkedContext = context.fork();
-                    trigger.tick(forkedContext);
-                    forkedContext.free();
-                    ((SimulateExploreAllPathsProgramBehaviour) forkedContext.getBehaviour()).terminatePathAndBeginAnew();
-                }
-                simulation.prepareNextTrigger();
-            } else {
+        if (usesPools) context.checkSlotPoolInvariants();
+
+        if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour simulation) {
+            simulation.onProgramFinished(context, this);
+        }
+    }
+
+    /**
+     * Tick a trigger that is due, or continue the trigger suspended in the context.
+     * <p>
+     * Deferred triggers are run through here directly, see {@link ProgramTickBudget}.
+     * <p>
+     * Timer triggers that run longer than their time slice stop between statements and keep their input slots,
+     * the next call continues from where they stopped.
+     */
+    public void tickTrigger(
+            ProgramContext context,
+            Trigger trigger
+    ) {
+        boolean resuming = context.getSuspendedTrigger() == trigger;
+
+        // Skip triggers that would do nothing, when enabled
+        TriggerFingerprint fingerprint = null;
+        if (context.getBehaviour() instanceof DefaultProgramBehaviour
+            && SFMConfig.getOrDefault(SFMConfig.COMMON.skipUnchangedTimerTriggers)) {
+            fingerprint = context.getTriggerFingerprint(trigger);
+            if (!resuming && fingerprint.isUnchanged(context)) {
+                context.getManager().trackTriggerSkipped();
+                context.getLogger().debug(x -> x.accept(LocalizationKeys.LOG_PROGRAM_TICK_TRIGGER_SKIPPED.get(
+                        trigger.toString(),
+                        context.getManager().getTriggerSkipCount()
+                )));
+                return;
+            }
+        }
+
+        // Set flag and log on first trigger
+        if (!context.didSomething()) {
+            context.setDidSomething(true);
+            context.getLogger().trace(getTraceLogWriter(context));
+            context.getLogger().debug(debug -> debug.accept(LocalizationKeys.LOG_PROGRAM_TICK.get()));
+        }
+
+        // Log pretty triggers
+        if (triggers instanceof ToStringCondensed ss) {
+            context
+                    .getLogger()
+                    .debug(x -> x.accept(LocalizationKeys.LOG_PROGRAM_TICK_TRIGGER_STATEMENT.get(
+                            ss.toStringCondensed())));
+        }
+
+        // Start stopwatch
+        long start = System.nanoTime();
+
+        // Perform tick
+        if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour simulation) {
+            int maxConditionCount = SFMConfig.getOrDefault(SFMConfig.COMMON.maxIfStatementsInTriggerBeforeSimulationIsntAllowed);
+            int conditionCount = Math.min(trigger.getConditionCount(), maxConditionCount);
+            int numPossibleStates = (int) Math.max(1, Math.pow(2, conditionCount));
+            for (int i = 0; i < numPossibleStates; i++) {
                 ProgramContext forkedContext = context.fork();
                 trigger.tick(forkedContext);
                 forkedContext.free();
+                ((SimulateExploreAllPathsProgramBehaviour) forkedContext.getBehaviour()).terminatePathAndBeginAnew();
+            }
+            simulation.prepareNextTrigger();
+        } else {
+            // Only timer triggers are sliced, redstone triggers must consume their pulses in one go
+            if (trigger instanceof TimerTrigger) {
+                double sliceMillis = SFMConfig.getOrDefault(SFMConfig.COMMON.triggerTimeSliceMilliseconds);
+                context.beginTimeSlice((long) (sliceMillis * 1_000_000));
+            }
+            if (resuming) {
+                context.getLogger().debug(x -> x.accept(LocalizationKeys.LOG_PROGRAM_TICK_TRIGGER_RESUMED.get(
+                        trigger.toString())));
             }
 
-            // End stopwatch
-            long nanoTimePassed = System.nanoTime() - start;
-
-            // Log trigger time
-            context.getLogger().info(x -> x.accept(LocalizationKeys.PROGRAM_TICK_TRIGGER_TIME_MS.get(
-                    nanoTimePassed / 1_000_000.0,
-                    trigger.toString()
-            )));
+            // no behaviour state to isolate, so the context is reused instead of forked
+            getLoweredTrigger(trigger).tick(context);
+            if (context.isSuspending()) {
+                // keep the inputs gathered so far for the next slice
+                context.finishSuspending(trigger);
+                context.getInventorySnapshot().clear();
+                context.getLogger().debug(x -> x.accept(LocalizationKeys.LOG_PROGRAM_TICK_TRIGGER_SUSPENDED.get(
+                        trigger.toString())));
+            } else {
+                if (fingerprint != null) {
+                    // the inventories may have changed between slices, so a resumed trigger is never considered idle
+                    fingerprint.update(context, context.didMove() || resuming);
+                }
+                context.free();
+            }
         }
 
-        LimitedInputSlotObjectPool.checkInvariant();
-        LimitedOutputSlotObjectPool.checkInvariant();
+        // End stopwatch
+        long nanoTimePassed = System.nanoTime() - start;
 
-        if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour simulation) {
-            simulation.onProgramFinished(context, this);
+        // Log trigger time
+        context.getLogger().info(x -> x.accept(LocalizationKeys.PROGRAM_TICK_TRIGGER_TIME_MS.get(
+                nanoTimePassed / 1_000_000.0,
+                trigger.toString()
+        )));
+
+        // Draw from the server-wide time budget
+        if (context.getBehaviour() instanceof DefaultProgramBehaviour) {
+            ProgramTickBudget.track(nanoTimePassed);
         }
     }
 
+    /**
+     * Get the optimized and lowered form of one of the triggers of this program.
+     */
+    public ProgramLowering.LoweredStatement getLoweredTrigger(Trigger trigger) {
+        ProgramLowering.LoweredStatement lowered = loweredTriggers.get(trigger);
+        // not one of ours, the AST behaves the same just slower
+        return lowered != null ? lowered : trigger::tick;
+    }
+
     public int getConditionIndex(IfStatement ifStatement) {
         for (Trigger trigger : triggers) {
             int conditionIndex = trigger.getConditionIndex(ifStatement);
@@ -305,22 +440,14 @@ public record Program(
             //noinspection DataFlowIssue
             context
                     .getLabelPositionHolder()
-                    .labels()
-                    .forEach((label, positions) -> positions
-                            .stream()
-                            .map(
-                                    pos -> "- "
-                                           + label
-                                           + ": "
-                                           + pos.toString()
-                                           + " "
-                                           + level
-                                                   .getBlockState(
-                                                           pos)
-
-                            )
-                            .forEach(body -> trace.accept(LocalizationKeys.LOG_LABEL_POSITION_HOLDER_DETAILS_BODY.get(
-                                    body))));
+                    .forEach((label, pos) -> trace.accept(LocalizationKeys.LOG_LABEL_POSITION_HOLDER_DETAILS_BODY.get(
+                            "- "
+                            + label
+                            + ": "
+                            + pos.toString()
+                            + " "
+                            + level.getBlockState(pos)
+                    )));
             trace.accept(LocalizationKeys.LOG_LABEL_POSITION_HOLDER_DETAILS_FOOTER.get());
             trace.accept(LocalizationKeys.LOG_PROGRAM_CONTEXT.get(context));
         };
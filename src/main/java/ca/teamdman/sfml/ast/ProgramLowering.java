@@ -0,0 +1,111 @@
+package ca.teamdman.sfml.ast;
+
+import ca.teamdman.sfm.common.program.ProgramContext;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Lowers the AST into a tree of closures for managers to run.
+ * <p>
+ * Interpreting the AST repeats the same work every tick: walking child lists, unwrapping parentheses
+ * and dispatching on every node.
+ * Lowering does that work once, the closures hold their children in arrays.
+ * Input, output and HAS closures each keep a {@link LoweredLabelAccess}, so the directions, slot ranges,
+ * resource types and positions of their labels are resolved once instead of every time they run.
+ * Triggers are lowered when the program is built, see {@link Program#getLoweredTrigger(Trigger)}.
+ * <p>
+ * Only the default behaviour runs lowered code.
+ * Simulations keep interpreting the AST since they observe each node as it runs.
+ */
+public class ProgramLowering {
+    public static LoweredStatement lower(Trigger trigger) {
+        if (trigger instanceof TimerTrigger timerTrigger) {
+            return lower(timerTrigger.block());
+        } else if (trigger instanceof RedstoneTrigger redstoneTrigger) {
+            LoweredStatement block = lower(redstoneTrigger.block());
+            return context -> {
+                for (int i = 0; i < context.getRedstonePulses(); i++) {
+                    block.tick(context);
+                }
+            };
+        } else {
+            return trigger::tick;
+        }
+    }
+
+    public static LoweredStatement lower(Statement statement) {
+        if (statement instanceof Block block) {
+            return lowerBlock(block);
+        } else if (statement instanceof IfStatement ifStatement) {
+            return lowerIf(ifStatement);
+        } else if (statement instanceof InputStatement input) {
+            LoweredLabelAccess access = new LoweredLabelAccess(input.labelAccess(), input::getReferencedResourceTypes);
+            return context -> input.tick(context, access);
+        } else if (statement instanceof OutputStatement output) {
+            LoweredLabelAccess access = new LoweredLabelAccess(output.labelAccess(), output::getReferencedResourceTypes);
+            return context -> output.tick(context, access);
+        } else {
+            // FORGET builds new label accesses every time it runs, there is nothing to resolve ahead of time
+            return statement::tick;
+        }
+    }
+
+    public static Predicate<ProgramContext> lower(BoolExpr expr) {
+        if (expr instanceof BoolParen paren) {
+            return lower(paren.inner());
+        } else if (expr instanceof BoolNegation negation) {
+            Predicate<ProgramContext> inner = lower(negation.inner());
+            return context -> !inner.test(context);
+        } else if (expr instanceof BoolConjunction conjunction) {
+            Predicate<ProgramContext> left = lower(conjunction.left());
+            Predicate<ProgramContext> right = lower(conjunction.right());
+            return context -> left.test(context) && right.test(context);
+        } else if (expr instanceof BoolDisjunction disjunction) {
+            Predicate<ProgramContext> left = lower(disjunction.left());
+            Predicate<ProgramContext> right = lower(disjunction.right());
+            return context -> left.test(context) || right.test(context);
+        } else if (expr instanceof BoolTrue) {
+            return context -> true;
+        } else if (expr instanceof BoolFalse) {
+            return context -> false;
+        } else if (expr instanceof BoolHas has) {
+            LoweredLabelAccess access = new LoweredLabelAccess(
+                    has.labelAccess(),
+                    has.resourceIdSet()::getReferencedResourceTypes
+            );
+            return context -> has.test(context, access);
+        } else {
+            // BoolRedstone reads the manager's signal and has nothing to resolve ahead of time
+            return expr;
+        }
+    }
+
+    /**
+     * Runs {@link Block#tick(ProgramContext, LoweredStatement[])} with the lowered statements.
+     */
+    private static LoweredStatement lowerBlock(Block block) {
+        List<Statement> statements = block.statements();
+        LoweredStatement[] lowered = new LoweredStatement[statements.size()];
+        for (int i = 0; i < lowered.length; i++) {
+            lowered[i] = lower(statements.get(i));
+        }
+        return context -> block.tick(context, lowered);
+    }
+
+    /**
+     * Runs {@link IfStatement#tick(ProgramContext, Predicate, LoweredStatement, LoweredStatement)}
+     * with the lowered condition and blocks.
+     */
+    private static LoweredStatement lowerIf(IfStatement ifStatement) {
+        Predicate<ProgramContext> condition = lower(ifStatement.condition());
+        LoweredStatement trueBlock = lowerBlock(ifStatement.trueBlock());
+        LoweredStatement falseBlock = lowerBlock(ifStatement.falseBlock());
+        return context -> ifStatement.tick(context, condition, trueBlock, falseBlock);
+    }
+
+    @FunctionalInterface
+    public interface LoweredStatement {
+        void tick(ProgramContext context);
+    }
+}
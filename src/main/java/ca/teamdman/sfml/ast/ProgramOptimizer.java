@@ -0,0 +1,236 @@
+package ca.teamdman.sfml.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rewrites triggers into simpler ones that behave the same before they are lowered, see {@link ProgramLowering}.
+ * <ul>
+ *     <li>Constant conditions are folded, and if statements with a constant condition are replaced by the branch taken</li>
+ *     <li>Dead statements are removed, such as outputs in a timer trigger before any input and ifs with nothing in them</li>
+ *     <li>An input identical to the input right before it is dropped when neither has limits</li>
+ *     <li>Repeated unlimited resource limits in an input are dropped</li>
+ * </ul>
+ * The program returned by {@link Program#compile} is left as written so that warnings and inspections see the source,
+ * the optimized nodes are mapped back to the source nodes they replace using {@link ASTBuilder#setLocationFromOtherNode(ASTNode, ASTNode)}.
+ * This runs once while the program is built, before it is handed to a manager, see {@link Program#getLoweredTrigger(Trigger)}.
+ * <p>
+ * Anything with side effects, like round robin, is left alone.
+ */
+public class ProgramOptimizer {
+    private final ASTBuilder builder;
+    private boolean mayHaveInputs = false;
+
+    private ProgramOptimizer(ASTBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Get the optimized trigger, the source is left alone.
+     *
+     * @param builder the builder of the program, the rewritten nodes are given the locations of the nodes they replace
+     * @return the same trigger if nothing could be optimized
+     */
+    public static Trigger optimize(
+            ASTBuilder builder,
+            Trigger trigger
+    ) {
+        return new ProgramOptimizer(builder).optimizeTrigger(trigger);
+    }
+
+    /**
+     * Fold an expression made of constants, {@code NOT}, {@code AND}, {@code OR} and parentheses.
+     *
+     * @return the same expression if nothing could be folded
+     */
+    public static BoolExpr fold(BoolExpr expr) {
+        if (expr instanceof BoolParen paren) {
+            return fold(paren.inner());
+        } else if (expr instanceof BoolNegation negation) {
+            BoolExpr inner = fold(negation.inner());
+            if (inner instanceof BoolTrue) return new BoolFalse();
+            if (inner instanceof BoolFalse) return new BoolTrue();
+            if (inner instanceof BoolNegation doubleNegation) return doubleNegation.inner();
+            return inner == negation.inner() ? expr : new BoolNegation(inner);
+        } else if (expr instanceof BoolConjunction conjunction) {
+            BoolExpr left = fold(conjunction.left());
+            BoolExpr right = fold(conjunction.right());
+            if (left instanceof BoolFalse) return left;
+            if (left instanceof BoolTrue) return right;
+            if (right instanceof BoolTrue) return left;
+            // the left side still has to run if it has side effects
+            if (right instanceof BoolFalse && isPure(left)) return right;
+            return left == conjunction.left() && right == conjunction.right()
+                   ? expr
+                   : new BoolConjunction(left, right);
+        } else if (expr instanceof BoolDisjunction disjunction) {
+            BoolExpr left = fold(disjunction.left());
+            BoolExpr right = fold(disjunction.right());
+            if (left instanceof BoolTrue) return left;
+            if (left instanceof BoolFalse) return right;
+            if (right instanceof BoolFalse) return left;
+            if (right instanceof BoolTrue && isPure(left)) return right;
+            return left == disjunction.left() && right == disjunction.right()
+                   ? expr
+                   : new BoolDisjunction(left, right);
+        }
+        return expr;
+    }
+
+    /**
+     * @return {@code true} if evaluating the expression has no effect besides its result
+     */
+    private static boolean isPure(BoolExpr expr) {
+        if (expr instanceof BoolHas has) {
+            return !has.labelAccess().roundRobin().isEnabled();
+        } else if (expr instanceof BoolConjunction conjunction) {
+            return isPure(conjunction.left()) && isPure(conjunction.right());
+        } else if (expr instanceof BoolDisjunction disjunction) {
+            return isPure(disjunction.left()) && isPure(disjunction.right());
+        } else if (expr instanceof BoolNegation negation) {
+            return isPure(negation.inner());
+        } else if (expr instanceof BoolParen paren) {
+            return isPure(paren.inner());
+        }
+        return expr instanceof BoolTrue || expr instanceof BoolFalse || expr instanceof BoolRedstone;
+    }
+
+    private static boolean isUnlimited(ResourceLimit resourceLimit) {
+        return resourceLimit.limit().equals(Limit.MAX_QUANTITY_NO_RETENTION);
+    }
+
+    /**
+     * Two inputs without limits or round robin that read the same slots gather the same resources.
+     */
+    private static boolean isDuplicateInput(
+            InputStatement first,
+            InputStatement second
+    ) {
+        LabelAccess a = first.labelAccess();
+        LabelAccess b = second.labelAccess();
+        return !a.roundRobin().isEnabled()
+               && !b.roundRobin().isEnabled()
+               && a.labels().equals(b.labels())
+               && a.directions().equals(b.directions())
+               && Arrays.equals(a.slots().ranges(), b.slots().ranges())
+               && first.each() == second.each()
+               && first.resourceLimits().equals(second.resourceLimits())
+               && first.resourceLimits().resourceLimitList().stream().allMatch(ProgramOptimizer::isUnlimited);
+    }
+
+    private <T extends ASTNode> T mapToSource(
+            T node,
+            ASTNode source
+    ) {
+        // nodes created outside the builder, like the empty else block, have no location to copy
+        if (builder.getContextForNode(source).isPresent()) {
+            builder.setLocationFromOtherNode(node, source);
+        }
+        return node;
+    }
+
+    private Trigger optimizeTrigger(Trigger trigger) {
+        if (trigger instanceof TimerTrigger timerTrigger) {
+            mayHaveInputs = false;
+            Block block = optimizeBlock(timerTrigger.block());
+            if (block == timerTrigger.block()) return trigger;
+            return mapToSource(new TimerTrigger(timerTrigger.interval(), block), trigger);
+        } else if (trigger instanceof RedstoneTrigger redstoneTrigger) {
+            // the block runs once per pulse without freeing the inputs in between
+            mayHaveInputs = true;
+            Block block = optimizeBlock(redstoneTrigger.block());
+            if (block == redstoneTrigger.block()) return trigger;
+            return mapToSource(new RedstoneTrigger(block), trigger);
+        }
+        return trigger;
+    }
+
+    private Block optimizeBlock(Block block) {
+        List<Statement> statements = new ArrayList<>(block.statements().size());
+        boolean changed = false;
+        for (Statement statement : block.statements()) {
+            changed |= optimizeInto(statement, statements);
+        }
+        if (!changed) return block;
+        return mapToSource(new Block(statements), block);
+    }
+
+    /**
+     * Add the optimized form of the statement to the list, which may be nothing or several statements.
+     *
+     * @return {@code true} if the statement was changed
+     */
+    private boolean optimizeInto(
+            Statement statement,
+            List<Statement> rtn
+    ) {
+        if (statement instanceof InputStatement input) {
+            InputStatement deduped = dedupeResourceLimits(input);
+            if (!rtn.isEmpty() && rtn.get(rtn.size() - 1) instanceof InputStatement previous
+                && isDuplicateInput(previous, deduped)) {
+                return true;
+            }
+            mayHaveInputs = true;
+            rtn.add(deduped);
+            return deduped != input;
+        } else if (statement instanceof OutputStatement output) {
+            if (!mayHaveInputs) {
+                // nothing to move
+                return true;
+            }
+            rtn.add(output);
+            return false;
+        } else if (statement instanceof IfStatement ifStatement) {
+            BoolExpr condition = fold(ifStatement.condition());
+            if (condition instanceof BoolTrue || condition instanceof BoolFalse) {
+                Block taken = condition instanceof BoolTrue ? ifStatement.trueBlock() : ifStatement.falseBlock();
+                for (Statement child : taken.statements()) {
+                    optimizeInto(child, rtn);
+                }
+                return true;
+            }
+            boolean before = mayHaveInputs;
+            Block trueBlock = optimizeBlock(ifStatement.trueBlock());
+            boolean afterTrue = mayHaveInputs;
+            mayHaveInputs = before;
+            Block falseBlock = optimizeBlock(ifStatement.falseBlock());
+            mayHaveInputs |= afterTrue;
+            if (trueBlock.statements().isEmpty() && falseBlock.statements().isEmpty() && isPure(condition)) {
+                // nothing to do either way
+                return true;
+            }
+            if (condition == ifStatement.condition()
+                && trueBlock == ifStatement.trueBlock()
+                && falseBlock == ifStatement.falseBlock()) {
+                rtn.add(ifStatement);
+                return false;
+            }
+            if (condition != ifStatement.condition()) {
+                mapToSource(condition, ifStatement.condition());
+            }
+            rtn.add(mapToSource(new IfStatement(condition, trueBlock, falseBlock), ifStatement));
+            return true;
+        }
+        rtn.add(statement);
+        return false;
+    }
+
+    /**
+     * Each resource limit gets its own tracker, a repeated unlimited one would only gather the same slots again.
+     */
+    private InputStatement dedupeResourceLimits(InputStatement input) {
+        List<ResourceLimit> resourceLimitList = input.resourceLimits().resourceLimitList();
+        List<ResourceLimit> deduped = new ArrayList<>(resourceLimitList.size());
+        for (ResourceLimit resourceLimit : resourceLimitList) {
+            if (isUnlimited(resourceLimit) && deduped.contains(resourceLimit)) continue;
+            deduped.add(resourceLimit);
+        }
+        if (deduped.size() == resourceLimitList.size()) return input;
+        ResourceLimits resourceLimits = mapToSource(
+                new ResourceLimits(deduped, input.resourceLimits().exclusions()),
+                input.resourceLimits()
+        );
+        return mapToSource(new InputStatement(input.labelAccess(), resourceLimits, input.each()), input);
+    }
+}
@@ -1,5 +1,6 @@
 package ca.teamdman.sfml.ast;
 
+import ca.teamdman.sfm.common.program.RegistryIdMatcher;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
 import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.Nullable;
@@ -16,17 +17,25 @@ public final class ResourceIdSet implements ASTNode {
     public static final ResourceIdSet EMPTY = new ResourceIdSet(new LinkedHashSet<>());
     public static final ResourceIdSet MATCH_ALL = new ResourceIdSet(new LinkedHashSet<>(List.of(ResourceIdentifier.MATCH_ALL)));
     private final LinkedHashSet<ResourceIdentifier<?, ?, ?>> resourceIds;
+    private @Nullable RegistryIdMatcher registryIdMatcher = null;
+    private @Nullable Set<ResourceType<?, ?, ?>> referencedResourceTypes = null;
 
     public ResourceIdSet(Collection<ResourceIdentifier<?, ?, ?>> contents) {
         this(new LinkedHashSet<>(contents));
     }
 
+    /**
+     * @return the resource types of the identifiers, which must not be modified
+     */
     public Set<ResourceType<?,?,?>> getReferencedResourceTypes() {
-        HashSet<ResourceType<?,?,?>> rtn = new HashSet<>(8);
-        for (ResourceIdentifier<?, ?, ?> resourceId : this.resourceIds) {
-            rtn.add(resourceId.getResourceType());
+        if (referencedResourceTypes == null) {
+            HashSet<ResourceType<?,?,?>> rtn = new HashSet<>(8);
+            for (ResourceIdentifier<?, ?, ?> resourceId : this.resourceIds) {
+                rtn.add(resourceId.getResourceType());
+            }
+            referencedResourceTypes = Collections.unmodifiableSet(rtn);
         }
-        return rtn;
+        return referencedResourceTypes;
     }
 
     public boolean couldMatchMoreThanOne() {
@@ -56,8 +65,26 @@ public final class ResourceIdSet implements ASTNode {
         return null;
     }
 
+    /**
+     * Faster than {@link #getMatchingFromStack(Object)} when only the resource type of the match is needed.
+     *
+     * @return the resource type of the identifiers that matched the stack, or null if none matched
+     */
+    public @Nullable ResourceType<?, ?, ?> getMatchingResourceTypeFromStack(Object stack) {
+        RegistryIdMatcher matcher = registryIdMatcher;
+        if (matcher == null || matcher.isStale()) {
+            matcher = RegistryIdMatcher.build(this);
+            registryIdMatcher = matcher;
+        }
+        return matcher.getMatchingResourceType(stack);
+    }
+
+    public boolean anyMatchStack(Object stack) {
+        return getMatchingResourceTypeFromStack(stack) != null;
+    }
+
     public boolean noneMatchStack(Object stack) {
-        return getMatchingFromStack(stack) == null;
+        return getMatchingResourceTypeFromStack(stack) == null;
     }
 
     public boolean anyMatchResourceLocation(ResourceLocation location) {
@@ -4,13 +4,13 @@ import ca.teamdman.sfm.SFM;
 import ca.teamdman.sfm.common.program.RegexCache;
 import ca.teamdman.sfm.common.registry.SFMResourceTypes;
 import ca.teamdman.sfm.common.resourcetype.ResourceType;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.minecraft.ResourceLocationException;
 import net.minecraft.resources.ResourceLocation;
 import org.apache.commons.lang3.NotImplementedException;
 
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -23,7 +23,8 @@ public class ResourceIdentifier<STACK, ITEM, CAP> implements ASTNode, ToStringCo
             ".*",
             ".*"
     );
-    private static final Map<ResourceIdentifier<?, ?, ?>, List<ResourceIdentifier<?, ?, ?>>> expansionCache = new Object2ObjectOpenHashMap<>();
+    // shared by the server thread and the compiler thread
+    private static final Map<ResourceIdentifier<?, ?, ?>, List<ResourceIdentifier<?, ?, ?>>> expansionCache = new ConcurrentHashMap<>();
     public final String resourceTypeNamespace;
     public final String resourceTypeName;
     public final String resourceNamespace;
@@ -125,9 +126,10 @@ public class ResourceIdentifier<STACK, ITEM, CAP> implements ASTNode, ToStringCo
                         "forge",
                         "energy"
                 ));
-            if (expansionCache.containsKey(this)) {
+            List<ResourceIdentifier<?, ?, ?>> cached = expansionCache.get(this);
+            if (cached != null) {
                 //noinspection unchecked,rawtypes
-                return (List<ResourceIdentifier<STACK, ITEM, CAP>>) (List) expansionCache.get(this);
+                return (List<ResourceIdentifier<STACK, ITEM, CAP>>) (List) cached;
             }
             ResourceType<STACK, ITEM, CAP> resourceType = getResourceType();
             if (resourceType == null) {
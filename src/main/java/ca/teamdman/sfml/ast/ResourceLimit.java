@@ -58,12 +58,8 @@ public record ResourceLimit(
     }
 
     public boolean matchesStack(Object stack) {
-        var matchingIdPattern = resourceIds.getMatchingFromStack(stack);
-        if (matchingIdPattern == null) {
-            return false;
-        }
         @SuppressWarnings("unchecked")
-        ResourceType<Object, ?, ?> resourceType = (ResourceType<Object, ?, ?>) matchingIdPattern.getResourceType();
+        ResourceType<Object, ?, ?> resourceType = (ResourceType<Object, ?, ?>) resourceIds.getMatchingResourceTypeFromStack(stack);
         if (resourceType == null) {
             return false;
         }
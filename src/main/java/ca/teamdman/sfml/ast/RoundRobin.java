@@ -51,17 +51,17 @@ public class RoundRobin implements ASTNode {
             case BY_LABEL -> {
                 int index = next(labels.size());
                 Label label = labels.get(index);
-                for (BlockPos pos : labelPositionHolder.getPositions(label.name())) {
-                    positions.add(Pair.of(label, pos));
+                for (long pos : labelPositionHolder.getPositions(label.name())) {
+                    positions.add(Pair.of(label, BlockPos.of(pos)));
                 }
             }
             case BY_BLOCK -> {
                 List<Pair<Label, BlockPos>> candidates = new ArrayList<>();
                 LongOpenHashSet seen = new LongOpenHashSet();
                 for (Label label : labels) {
-                    for (BlockPos pos : labelPositionHolder.getPositions(label.name())) {
-                        if (!seen.add(pos.asLong())) continue;
-                        candidates.add(Pair.of(label, pos));
+                    for (long pos : labelPositionHolder.getPositions(label.name())) {
+                        if (!seen.add(pos)) continue;
+                        candidates.add(Pair.of(label, BlockPos.of(pos)));
                     }
                 }
                 if (!candidates.isEmpty()) {
@@ -70,8 +70,8 @@ public class RoundRobin implements ASTNode {
             }
             case UNMODIFIED -> {
                 for (Label label : labels) {
-                    for (BlockPos pos : labelPositionHolder.getPositions(label.name())) {
-                        positions.add(Pair.of(label, pos));
+                    for (long pos : labelPositionHolder.getPositions(label.name())) {
+                        positions.add(Pair.of(label, BlockPos.of(pos)));
                     }
                 }
             }
@@ -5,17 +5,11 @@ import java.util.Locale;
 import java.util.function.BiPredicate;
 
 public enum SetOperator implements ASTNode, BiPredicate<Boolean, List<Boolean>>, ToStringPretty {
-    OVERALL((overall, __) -> overall),
-    SOME((__, set) -> set.stream().anyMatch(Boolean::booleanValue)),
-    EVERY((__, set) -> set.stream().allMatch(Boolean::booleanValue)),
-    ONE((__, set) -> set.stream().filter(Boolean::booleanValue).count() == 1),
-    LONE((__, set) -> set.stream().filter(Boolean::booleanValue).count() <= 1);
-
-    private final BiPredicate<Boolean, List<Boolean>> PRED;
-
-    SetOperator(BiPredicate<Boolean, List<Boolean>> pred) {
-        this.PRED = pred;
-    }
+    OVERALL,
+    SOME,
+    EVERY,
+    ONE,
+    LONE;
 
     public static SetOperator from(String text) {
         text = text.toUpperCase(Locale.ROOT);
@@ -27,7 +21,39 @@ public enum SetOperator implements ASTNode, BiPredicate<Boolean, List<Boolean>>,
 
     @Override
     public boolean test(Boolean overall, List<Boolean> counts) {
-        return PRED.test(overall, counts);
+        int satisfied = 0;
+        for (boolean result : counts) {
+            if (result) satisfied++;
+        }
+        return test(overall, satisfied, counts.size() - satisfied);
+    }
+
+    /**
+     * @param overall     whether the total across every inventory satisfied the comparison
+     * @param satisfied   how many inventories satisfied the comparison
+     * @param unsatisfied how many inventories did not
+     */
+    public boolean test(boolean overall, int satisfied, int unsatisfied) {
+        return switch (this) {
+            case OVERALL -> overall;
+            case SOME -> satisfied > 0;
+            case EVERY -> unsatisfied == 0;
+            case ONE -> satisfied == 1;
+            case LONE -> satisfied <= 1;
+        };
+    }
+
+    /**
+     * Whether the inventories seen so far have settled the result no matter what the remaining ones hold.
+     * {@link #OVERALL} is settled by the total instead, see {@link ComparisonOperator#isDecided(long, long)}.
+     */
+    public boolean isDecided(int satisfied, int unsatisfied) {
+        return switch (this) {
+            case OVERALL -> false;
+            case SOME -> satisfied > 0;
+            case EVERY -> unsatisfied > 0;
+            case ONE, LONE -> satisfied > 1;
+        };
     }
 
 
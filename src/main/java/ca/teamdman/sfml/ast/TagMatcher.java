@@ -1,6 +1,9 @@
 package ca.teamdman.sfml.ast;
 
 import ca.teamdman.sfm.common.program.RegexCache;
+import ca.teamdman.sfm.common.program.RegistryIdMatcher;
+import ca.teamdman.sfm.common.resourcetype.ResourceType;
+import it.unimi.dsi.fastutil.objects.Reference2BooleanOpenHashMap;
 import net.minecraft.resources.ResourceLocation;
 
 import java.util.ArrayList;
@@ -13,6 +16,9 @@ public class TagMatcher implements Predicate<Object>, ASTNode {
     public final List<String> pathElementPatterns;
     private final Predicate<String> namespacePredicate;
     private final List<Predicate<String>> pathElementPredicates;
+    // tags belong to the item rather than the stack, so the result is the same for every stack of an item
+    private final Reference2BooleanOpenHashMap<Object> itemResults = new Reference2BooleanOpenHashMap<>();
+    private int itemResultsGeneration = RegistryIdMatcher.getGeneration();
 
     @Override
     public String toString() {
@@ -47,6 +53,27 @@ public class TagMatcher implements Predicate<Object>, ASTNode {
         return false;
     }
 
+    /**
+     * Check if any tag of the stack matches, remembering the result for the item of the stack until tags are updated.
+     */
+    public <STACK> boolean testStack(
+            ResourceType<STACK, ?, ?> resourceType,
+            STACK stack
+    ) {
+        int generation = RegistryIdMatcher.getGeneration();
+        if (itemResultsGeneration != generation) {
+            itemResults.clear();
+            itemResultsGeneration = generation;
+        }
+        Object item = resourceType.getItem(stack);
+        if (itemResults.containsKey(item)) {
+            return itemResults.getBoolean(item);
+        }
+        boolean result = resourceType.getTagsForStack(stack).anyMatch(this::testResourceLocation);
+        itemResults.put(item, result);
+        return result;
+    }
+
     public boolean testResourceLocation(ResourceLocation resourceLocation) {
         return testPath(resourceLocation.getNamespace(), resourceLocation.getPath().split("/"));
     }
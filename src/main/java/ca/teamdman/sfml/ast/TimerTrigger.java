@@ -1,5 +1,6 @@
 package ca.teamdman.sfml.ast;
 
+import ca.teamdman.sfm.common.blockentity.ManagerBlockEntity;
 import ca.teamdman.sfm.common.program.ProgramContext;
 import ca.teamdman.sfm.common.program.SimulateExploreAllPathsProgramBehaviour;
 
@@ -17,7 +18,9 @@ public record TimerTrigger(
     @Override
     public boolean shouldTick(ProgramContext context) {
         if (context.getBehaviour() instanceof SimulateExploreAllPathsProgramBehaviour) return true;
-        return context.getManager().getTick() % interval.getTicks() == 0;
+        ManagerBlockEntity manager = context.getManager();
+        int ticks = interval.getTicks();
+        return manager.getTick() % ticks == manager.getTimerTriggerPhase(ticks);
     }
 
     @Override
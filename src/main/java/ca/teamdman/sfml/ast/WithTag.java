@@ -8,7 +8,7 @@ public record WithTag(TagMatcher tagMatcher) implements ASTNode, WithClause, ToS
             ResourceType<STACK, ?, ?> resourceType,
             STACK stack
     ) {
-        return resourceType.getTagsForStack(stack).anyMatch(tagMatcher::testResourceLocation);
+        return tagMatcher.testStack(resourceType, stack);
     }
 
     @Override
@@ -0,0 +1,73 @@
+package ca.teamdman.sfm;
+
+import ca.teamdman.sfm.common.program.LabelAccessPositions;
+import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import ca.teamdman.sfml.ast.*;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LabelAccessPositionsTests {
+    private static final BlockPos A = new BlockPos(0, 64, 0);
+    private static final BlockPos B = new BlockPos(1, 64, 0);
+    private static final BlockPos C = new BlockPos(2, 64, 0);
+
+    private static LabelPositionHolder holder() {
+        return LabelPositionHolder.empty()
+                .add("first", B)
+                .add("first", A)
+                .add("second", B)
+                .add("second", C);
+    }
+
+    private static LabelAccess access(RoundRobin roundRobin) {
+        return new LabelAccess(
+                List.of(new Label("first"), new Label("second")),
+                DirectionQualifier.EVERY_DIRECTION,
+                NumberRangeSet.MAX_RANGE,
+                roundRobin
+        );
+    }
+
+    private static List<String> visit(
+            LabelAccessPositions positions,
+            RoundRobin roundRobin
+    ) {
+        List<String> rtn = new ArrayList<>();
+        positions.forEach(roundRobin, (label, pos) -> rtn.add(label.name() + "@" + pos.getX()));
+        return rtn;
+    }
+
+    @Test
+    public void unmodifiedVisitsEveryLabelInOrder() {
+        RoundRobin roundRobin = RoundRobin.disabled();
+        LabelAccessPositions positions = LabelAccessPositions.compile(access(roundRobin), holder());
+        assertEquals(4, positions.size());
+        assertEquals(List.of("first@0", "first@1", "second@1", "second@2"), visit(positions, roundRobin));
+        assertEquals(List.of("first@0", "first@1", "second@1", "second@2"), visit(positions, roundRobin));
+    }
+
+    @Test
+    public void roundRobinByLabel() {
+        RoundRobin roundRobin = new RoundRobin(RoundRobin.Behaviour.BY_LABEL);
+        LabelAccessPositions positions = LabelAccessPositions.compile(access(roundRobin), holder());
+        assertEquals(List.of("first@0", "first@1"), visit(positions, roundRobin));
+        assertEquals(List.of("second@1", "second@2"), visit(positions, roundRobin));
+        assertEquals(List.of("first@0", "first@1"), visit(positions, roundRobin));
+    }
+
+    @Test
+    public void roundRobinByBlockVisitsSharedPositionsOnce() {
+        RoundRobin roundRobin = new RoundRobin(RoundRobin.Behaviour.BY_BLOCK);
+        LabelAccessPositions positions = LabelAccessPositions.compile(access(roundRobin), holder());
+        assertEquals(3, positions.size());
+        assertEquals(List.of("first@0"), visit(positions, roundRobin));
+        assertEquals(List.of("first@1"), visit(positions, roundRobin));
+        assertEquals(List.of("second@2"), visit(positions, roundRobin));
+        assertEquals(List.of("first@0"), visit(positions, roundRobin));
+    }
+}
@@ -0,0 +1,114 @@
+package ca.teamdman.sfm;
+
+import ca.teamdman.sfm.common.program.LabelPositionHolder;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LabelPositionHolderTests {
+    @Test
+    public void versionChangesOnlyWhenLabelsChange() {
+        LabelPositionHolder labels = LabelPositionHolder.empty();
+        long before = labels.getVersion();
+        labels.add("a", BlockPos.ZERO);
+        long afterAdd = labels.getVersion();
+        assertTrue(afterAdd > before);
+
+        labels.add("a", BlockPos.ZERO);
+        assertEquals(afterAdd, labels.getVersion());
+
+        LabelPositionHolder copy = labels.toOwned();
+        assertEquals(afterAdd, copy.getVersion());
+        assertEquals(labels, copy);
+
+        copy.remove("a", BlockPos.ZERO);
+        assertNotEquals(afterAdd, copy.getVersion());
+        assertEquals(afterAdd, labels.getVersion());
+        assertTrue(labels.contains("a", BlockPos.ZERO));
+    }
+
+    @Test
+    public void reverseIndexFollowsChanges() {
+        BlockPos pos = new BlockPos(1, 2, 3);
+        LabelPositionHolder labels = LabelPositionHolder.empty()
+                .add("a", pos)
+                .add("b", pos)
+                .add("b", BlockPos.ZERO);
+        assertEquals(Set.of("a", "b"), labels.getLabels(pos));
+        assertEquals(Set.of("b"), labels.getLabels(BlockPos.ZERO));
+
+        labels.remove("a", pos);
+        assertEquals(Set.of("b"), labels.getLabels(pos));
+
+        labels.removeAll(pos);
+        assertEquals(Set.of(), labels.getLabels(pos));
+        assertEquals(1, labels.getPositions("b").size());
+        assertTrue(labels.getPositions("b").contains(BlockPos.ZERO.asLong()));
+    }
+
+    private static LabelPositionHolder manyLabels() {
+        LabelPositionHolder labels = LabelPositionHolder.empty();
+        for (int x = -50; x < 50; x++) {
+            for (int z = -20; z < 20; z++) {
+                labels.add(x % 2 == 0 ? "even" : "odd", new BlockPos(x, -60 + (x * z) % 300, z));
+            }
+        }
+        labels.addReferencedLabel("unused");
+        return labels;
+    }
+
+    private static CompoundTag serializeAsCompounds(LabelPositionHolder labels) {
+        CompoundTag tag = new CompoundTag();
+        for (var entry : labels.labels().entrySet()) {
+            ListTag list = new ListTag();
+            for (long pos : entry.getValue()) {
+                list.add(NbtUtils.writeBlockPos(BlockPos.of(pos)));
+            }
+            tag.put(entry.getKey(), list);
+        }
+        return tag;
+    }
+
+    private static int sizeInBytes(CompoundTag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtIo.write(tag, new DataOutputStream(bytes));
+        return bytes.size();
+    }
+
+    @Test
+    public void serializeRoundTrip() {
+        LabelPositionHolder labels = manyLabels();
+        CompoundTag tag = labels.serialize();
+        assertEquals(Tag.TAG_LONG_ARRAY, tag.getTagType("even"));
+        assertEquals(labels, LabelPositionHolder.deserialize(tag));
+        assertEquals(tag, labels.toOwned().serialize());
+    }
+
+    @Test
+    public void deserializeOldFormats() {
+        LabelPositionHolder labels = manyLabels();
+        assertEquals(labels, LabelPositionHolder.deserialize(serializeAsCompounds(labels)));
+
+        CompoundTag longList = new CompoundTag();
+        ListTag list = new ListTag();
+        list.add(LongTag.valueOf(BlockPos.ZERO.asLong()));
+        longList.put("a", list);
+        assertEquals(LabelPositionHolder.empty().add("a", BlockPos.ZERO), LabelPositionHolder.deserialize(longList));
+    }
+
+    @Test
+    public void longArraysAreSmaller() throws IOException {
+        LabelPositionHolder labels = manyLabels();
+        int compounds = sizeInBytes(serializeAsCompounds(labels));
+        int longArrays = sizeInBytes(labels.serialize());
+        // a compound of three named ints is 25 bytes, a packed long is 8
+        assertTrue(longArrays * 3 < compounds);
+    }
+}
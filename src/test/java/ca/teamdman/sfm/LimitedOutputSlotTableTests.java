@@ -0,0 +1,103 @@
+package ca.teamdman.sfm;
+
+import ca.teamdman.sfm.common.program.LimitedOutputSlotTable;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LimitedOutputSlotTableTests {
+    @Test
+    public void keepsSlotIndicesNextToEachOther() {
+        LimitedOutputSlotTable table = new LimitedOutputSlotTable();
+        for (int slot = 0; slot < 100; slot++) {
+            table.add(slot / 10, slot, slot, "stack", slot % 64, slot % 3);
+        }
+        assertEquals(100, table.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, table.getSlotIndices()[i]);
+            assertEquals(i, table.getSlot(i));
+            assertEquals(i / 10, table.getGroup(i));
+            assertEquals(i % 64, table.getCount(i));
+            assertEquals(i % 3, table.getResourceKey(i));
+        }
+        table.truncate(0);
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void compactsInPlace() {
+        LimitedOutputSlotTable table = new LimitedOutputSlotTable();
+        for (int slot = 0; slot < 10; slot++) {
+            table.add(0, slot, slot, "stack", 0, -1);
+        }
+        // keep the odd slots
+        int write = 0;
+        for (int read = 0; read < table.size(); read++) {
+            if (table.getSlot(read) % 2 == 0) continue;
+            table.move(read, write++);
+        }
+        table.truncate(write);
+        assertEquals(5, table.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 2 + 1, table.getSlotIndices()[i]);
+            assertEquals(i * 2 + 1, table.getOrder(i));
+        }
+    }
+
+    @Test
+    public void invalidatedStacksAreForgotten() {
+        LimitedOutputSlotTable table = new LimitedOutputSlotTable();
+        table.add(0, 0, 0, "stack", 5, 0);
+        table.invalidateStack(0);
+        assertNull(table.getStack(0));
+        table.setStack(0, "other", 7, 1);
+        assertEquals("other", table.getStack(0));
+        assertEquals(7, table.getCount(0));
+        assertEquals(1, table.getResourceKey(0));
+    }
+
+    @Test
+    public void mergesAppendedSlotsIntoGatherOrder() {
+        LimitedOutputSlotTable table = new LimitedOutputSlotTable();
+        for (int slot = 0; slot < 40; slot += 2) {
+            table.add(0, slot, slot, "even", 1, 0);
+        }
+        LimitedOutputSlotTable filled = new LimitedOutputSlotTable();
+        for (int slot = 1; slot < 40; slot += 2) {
+            filled.add(1, slot, slot, "odd", 1, 0);
+        }
+        for (int i = 0; i < filled.size(); i++) {
+            table.addUnsorted(filled, i);
+        }
+        assertTrue(table.needsSort());
+
+        LimitedOutputSlotTable scratch = new LimitedOutputSlotTable();
+        table.sort(scratch);
+        assertFalse(table.needsSort());
+        assertTrue(scratch.isEmpty());
+        assertEquals(40, table.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, table.getOrder(i));
+            assertEquals(i, table.getSlotIndices()[i]);
+            assertEquals(i % 2, table.getGroup(i));
+            assertEquals(i % 2 == 0 ? "even" : "odd", table.getStack(i));
+        }
+    }
+
+    @Test
+    public void appendingInOrderNeedsNoMerge() {
+        LimitedOutputSlotTable table = new LimitedOutputSlotTable();
+        LimitedOutputSlotTable filled = new LimitedOutputSlotTable();
+        for (int slot = 0; slot < 10; slot++) {
+            (slot < 5 ? table : filled).add(0, slot, slot, "stack", 1, 0);
+        }
+        for (int i = 0; i < filled.size(); i++) {
+            table.addUnsorted(filled, i);
+        }
+        LimitedOutputSlotTable scratch = new LimitedOutputSlotTable();
+        table.sort(scratch);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, table.getOrder(i));
+        }
+    }
+}
@@ -1,12 +1,23 @@
 package ca.teamdman.sfm;
 
+import ca.teamdman.sfm.common.program.LimitedInputSlot;
+import ca.teamdman.sfm.common.program.LimitedInputSlotObjectPool;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class ObjectPoolPerformanceComparisonTests {
@@ -74,6 +85,84 @@ public class ObjectPoolPerformanceComparisonTests {
         }
     }
 
+    @RepeatedTest(10)
+    public void withContextOwnedPool() {
+        runWithSlotPool(new LimitedInputSlotObjectPool(false));
+    }
+
+    @RepeatedTest(10)
+    public void withContextOwnedPoolTrackingLeaks() {
+        runWithSlotPool(new LimitedInputSlotObjectPool(true));
+    }
+
+    @Test
+    public void contextOwnedPoolReusesReleasedSlots() {
+        LimitedInputSlotObjectPool pool = new LimitedInputSlotObjectPool(true);
+        List<LimitedInputSlot<?, ?, ?>> first = acquireSlots(pool, 0, 0);
+        pool.release(first);
+        assertEquals(first.size(), pool.available());
+        List<LimitedInputSlot<?, ?, ?>> second = acquireSlots(pool, 1, 1);
+        assertEquals(0, pool.available());
+        // the pool is a stack, so the last slot released is the first one reused
+        assertSame(first.get(first.size() - 1), second.get(0));
+        pool.release(second);
+        pool.checkInvariant();
+    }
+
+    @Test
+    public void contextOwnedPoolsOnSeparateThreads() throws Exception {
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    LimitedInputSlotObjectPool pool = new LimitedInputSlotObjectPool(true);
+                    for (int x = 0; x < 25; x++) {
+                        for (int y = 0; y < 25; y++) {
+                            pool.release(acquireSlots(pool, x, y));
+                        }
+                    }
+                    pool.checkInvariant();
+                    return pool.available();
+                }));
+            }
+            for (Future<Integer> result : results) {
+                // every thread grew its own pool to exactly what it needed
+                assertEquals(2700, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<LimitedInputSlot<?, ?, ?>> acquireSlots(
+            LimitedInputSlotObjectPool pool,
+            int x,
+            int y
+    ) {
+        BlockPos pos = new BlockPos(x, 64, y);
+        List<LimitedInputSlot<?, ?, ?>> slots = new ArrayList<>();
+        for (int slot = 0; slot < 2700; slot++) {
+            slots.add(pool.acquire(null, pos, Direction.NORTH, slot, null, null, null, null));
+        }
+        return slots;
+    }
+
+    private static void runWithSlotPool(LimitedInputSlotObjectPool pool) {
+        for (int x = 0; x < 25; x++) {
+            for (int y = 0; y < 25; y++) {
+                pool.release(acquireSlots(pool, x, y));
+                // do some junk work to complicate stuff
+                for (int i = 0; i < 100; i++) {
+                    var pattern = Pattern.compile("[a-zA-Z]{4,6}jkl[^_]");
+                    pattern.matcher("abcdefghijklmnopqrstuvwxyz").matches();
+                }
+            }
+        }
+        pool.checkInvariant();
+    }
+
     @SuppressWarnings("unused")
     private static class Thingy {
         @SuppressWarnings("unused")
@@ -0,0 +1,55 @@
+package ca.teamdman.sfm;
+
+import ca.teamdman.sfm.common.program.SlotLongTable;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SlotLongTableTests {
+    @Test
+    public void addsPerPositionAndSlot() {
+        SlotLongTable table = new SlotLongTable();
+        long a = BlockPos.asLong(0, 64, 0);
+        long b = BlockPos.asLong(1, 64, 0);
+        table.addTo(a, 0, 5);
+        table.addTo(a, 0, 3);
+        table.addTo(a, 1, 7);
+        table.addTo(b, 0, 11);
+        assertEquals(8, table.get(a, 0));
+        assertEquals(7, table.get(a, 1));
+        assertEquals(11, table.get(b, 0));
+        assertEquals(0, table.get(b, 1));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void keepsValuesWhenGrowing() {
+        SlotLongTable table = new SlotLongTable();
+        for (int x = 0; x < 100; x++) {
+            for (int slot = 0; slot < 27; slot++) {
+                table.addTo(BlockPos.asLong(x, 64, 0), slot, x * 100L + slot);
+            }
+        }
+        for (int x = 0; x < 100; x++) {
+            for (int slot = 0; slot < 27; slot++) {
+                assertEquals(x * 100L + slot, table.get(BlockPos.asLong(x, 64, 0), slot));
+            }
+        }
+        assertEquals(2700, table.size());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        SlotLongTable table = new SlotLongTable();
+        long pos = BlockPos.asLong(0, 64, 0);
+        for (int tick = 0; tick < 1000; tick++) {
+            assertEquals(0, table.get(pos, 3));
+            table.addTo(pos, 3, 64);
+            table.addTo(pos, 3, 1);
+            assertEquals(65, table.get(pos, 3));
+            table.clear();
+        }
+        assertEquals(0, table.size());
+    }
+}
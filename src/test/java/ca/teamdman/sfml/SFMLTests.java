@@ -4,9 +4,22 @@ import ca.teamdman.sfm.client.ProgramSyntaxHighlightingHelper;
 import ca.teamdman.sfm.client.ProgramTokenContextActions;
 import ca.teamdman.sfm.common.SFMConfig;
 import ca.teamdman.sfml.ast.ASTBuilder;
+import ca.teamdman.sfml.ast.BoolFalse;
+import ca.teamdman.sfml.ast.BoolRedstone;
+import ca.teamdman.sfml.ast.BoolTrue;
+import ca.teamdman.sfml.ast.ComparisonOperator;
+import ca.teamdman.sfml.ast.IOStatement;
+import ca.teamdman.sfml.ast.IfStatement;
+import ca.teamdman.sfml.ast.InputStatement;
+import ca.teamdman.sfml.ast.LoweredLabelAccess;
+import ca.teamdman.sfml.ast.OutputStatement;
 import ca.teamdman.sfml.ast.Program;
+import ca.teamdman.sfml.ast.ProgramLowering;
+import ca.teamdman.sfml.ast.ProgramOptimizer;
 import ca.teamdman.sfml.ast.ResourceIdentifier;
+import ca.teamdman.sfml.ast.SetOperator;
 import com.google.common.collect.Sets;
+import net.minecraft.core.Direction;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.ItemStack;
@@ -25,6 +38,8 @@ import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -822,4 +837,166 @@ public class SFMLTests {
         assertEquals("sfm:fluid:minecraft:.*", ident.toString());
         assertEquals("fluid:minecraft:", ident.toStringCondensed());
     }
+
+    @Test
+    public void loweredConditionsMatchInterpreted() {
+        var input = """
+                EVERY 20 TICKS DO
+                    IF TRUE THEN END
+                    IF FALSE THEN END
+                    IF NOT TRUE THEN END
+                    IF (FALSE) THEN END
+                    IF TRUE AND FALSE THEN END
+                    IF FALSE OR TRUE THEN END
+                    IF NOT (FALSE OR FALSE) AND TRUE THEN END
+                    IF TRUE AND NOT FALSE OR FALSE THEN END
+                    IF NOT NOT (TRUE AND (FALSE OR NOT FALSE)) THEN END
+                END
+                """.stripTrailing().stripIndent();
+        assertTrue(getCompileErrors(input).isEmpty());
+        var program = compile(input);
+        var statements = program.triggers().get(0).getBlock().getStatements();
+        assertEquals(9, statements.size());
+        for (var statement : statements) {
+            var condition = ((IfStatement) statement).condition();
+            // constant conditions don't look at the context
+            assertEquals(condition.test(null), ProgramLowering.lower(condition).test(null), condition.toString());
+        }
+    }
+
+    @Test
+    public void constantConditionsFold() {
+        var input = """
+                EVERY 20 TICKS DO
+                    IF TRUE AND NOT FALSE THEN END
+                    IF (FALSE OR FALSE) THEN END
+                    IF NOT NOT TRUE THEN END
+                    IF TRUE AND redstone gt 0 THEN END
+                END
+                """.stripTrailing().stripIndent();
+        var program = compile(input);
+        var statements = program.triggers().get(0).getBlock().getStatements();
+        assertInstanceOf(BoolTrue.class, ProgramOptimizer.fold(((IfStatement) statements.get(0)).condition()));
+        assertInstanceOf(BoolFalse.class, ProgramOptimizer.fold(((IfStatement) statements.get(1)).condition()));
+        assertInstanceOf(BoolTrue.class, ProgramOptimizer.fold(((IfStatement) statements.get(2)).condition()));
+        assertInstanceOf(BoolRedstone.class, ProgramOptimizer.fold(((IfStatement) statements.get(3)).condition()));
+    }
+
+    @Test
+    public void optimizerRemovesDeadStatements() {
+        var input = """
+                EVERY 20 TICKS DO
+                    OUTPUT TO b
+                    IF FALSE THEN
+                        INPUT FROM a
+                    END
+                    INPUT FROM a
+                    INPUT FROM a
+                    IF TRUE THEN
+                        OUTPUT TO b
+                    END
+                END
+                """.stripTrailing().stripIndent();
+        var program = compile(input);
+        var trigger = program.triggers().get(0);
+        var optimized = ProgramOptimizer.optimize(program.builder(), trigger);
+        var statements = optimized.getBlock().getStatements();
+        assertEquals(2, statements.size());
+        assertInstanceOf(InputStatement.class, statements.get(0));
+        assertInstanceOf(OutputStatement.class, statements.get(1));
+
+        // the source is left alone and the rewritten nodes still point at it
+        assertEquals(5, trigger.getBlock().getStatements().size());
+        assertEquals(
+                program.builder().getLineColumnForNode(trigger),
+                program.builder().getLineColumnForNode(optimized)
+        );
+    }
+
+    @Test
+    public void programLowersEveryTriggerWhenBuilt() {
+        var input = """
+                EVERY 20 TICKS DO
+                    INPUT FROM a
+                    OUTPUT TO b
+                END
+                EVERY REDSTONE PULSE DO
+                    IF TRUE THEN
+                        INPUT FROM b
+                        OUTPUT TO a
+                    END
+                END
+                """.stripTrailing().stripIndent();
+        var program = compile(input);
+        assertEquals(2, program.loweredTriggers().size());
+        for (var trigger : program.triggers()) {
+            // looked up by identity, the lowered form is built once and not on each tick
+            assertSame(program.loweredTriggers().get(trigger), program.getLoweredTrigger(trigger));
+        }
+    }
+
+    @Test
+    public void loweredLabelAccessMatchesTheAst() {
+        var input = """
+                EVERY 20 TICKS DO
+                    INPUT FROM a TOP SIDE SLOTS 0-2,5
+                    OUTPUT TO b
+                END
+                """.stripTrailing().stripIndent();
+        var program = compile(input);
+        var statements = program.triggers().get(0).getBlock().getStatements();
+        for (var statement : statements) {
+            var labelAccess = ((IOStatement) statement).labelAccess();
+            var lowered = new LoweredLabelAccess(labelAccess, Set::of);
+            for (int slot = -1; slot < 10; slot++) {
+                assertEquals(labelAccess.slots().contains(slot), lowered.containsSlot(slot), "slot " + slot);
+            }
+            var directions = new ArrayList<Direction>();
+            labelAccess.directions().forEach(directions::add);
+            assertEquals(directions, List.of(lowered.getDirections()));
+        }
+    }
+
+    @Test
+    public void comparisonStaysDecidedAsCountsGrow() {
+        for (ComparisonOperator operator : ComparisonOperator.values()) {
+            for (long quantity = 0; quantity <= 5; quantity++) {
+                for (long count = 0; count <= 10; count++) {
+                    if (!operator.isDecided(count, quantity)) continue;
+                    boolean result = operator.test(count, quantity);
+                    for (long more = count; more <= 20; more++) {
+                        assertEquals(result, operator.test(more, quantity), operator + " " + quantity + " " + count);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void setOperatorStopsWithSameResult() {
+        // every sequence of up to 6 inventory results
+        for (int length = 0; length <= 6; length++) {
+            for (int bits = 0; bits < 1 << length; bits++) {
+                List<Boolean> results = new ArrayList<>();
+                for (int i = 0; i < length; i++) {
+                    results.add((bits & (1 << i)) != 0);
+                }
+                for (SetOperator operator : SetOperator.values()) {
+                    if (operator == SetOperator.OVERALL) continue;
+                    int satisfied = 0;
+                    int unsatisfied = 0;
+                    for (boolean result : results) {
+                        if (result) satisfied++;
+                        else unsatisfied++;
+                        if (operator.isDecided(satisfied, unsatisfied)) break;
+                    }
+                    assertEquals(
+                            operator.test(false, results),
+                            operator.test(false, satisfied, unsatisfied),
+                            operator + " " + results
+                    );
+                }
+            }
+        }
+    }
 }